@@ -3,25 +3,49 @@ package bella;
 import beast.base.core.Description;
 import beast.base.core.Function;
 import beast.base.core.Input;
+import beast.base.core.Log;
 import beast.base.core.Loggable;
 import beast.base.inference.CalculationNode;
+import beast.base.inference.StateNode;
+import beast.base.inference.StateNodeInitialiser;
+import beast.base.inference.distribution.ParametricDistribution;
 import beast.base.inference.parameter.RealParameter;
 
 import bella.activations.ActivationFunction;
+import bella.activations.Identity;
 import bella.activations.ReLU;
 import bella.activations.Sigmoid;
+import bella.util.InterpolationUtil;
+import bella.util.MLPKernel;
 import bella.util.MLPUtil;
 import bella.util.ParameterUtil;
+import bella.util.WeightInitUtil;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.MatrixUtils;
 
 @Description("Bayesian Multi-Layer Perceptron (MLP) with configurable hidden layers and activation functions.")
-public class BayesMLP extends CalculationNode implements Function, Loggable {
+public class BayesMLP extends CalculationNode implements Function, Loggable, StateNodeInitialiser {
+
+    /**
+     * Strategies for initializing the network weights.
+     */
+    public enum WeightInit { none, glorot, he, prior }
+
+    /**
+     * Methods for interpolating the network output between knots.
+     */
+    public enum Interpolation { linear, monotone }
 
     public Input<ArrayList<RealParameter>> predictorsInput = new Input<>(
             "predictor",
@@ -59,13 +83,170 @@ public class BayesMLP extends CalculationNode implements Function, Loggable {
                     + "Default is true.",
             true, Input.Validate.OPTIONAL);
 
+    public Input<Boolean> compileInput = new Input<>(
+            "compile",
+            "Whether to generate a forward kernel specialized to the network architecture at initialization, "
+                    + "with layer sizes and activation functions as constants. "
+                    + "Falls back to the generic implementation if generation fails. Default is false.",
+            false, Input.Validate.OPTIONAL);
+
+    public Input<WeightInit> initInput = new Input<>(
+            "init",
+            "Strategy for initializing the weights: 'none' keeps the values given in the XML, "
+                    + "'glorot' and 'he' draw normal values scaled by the layer sizes, "
+                    + "'prior' draws values from initDistribution. Except for 'none', "
+                    + "hidden units are kept active and initial outputs are brought inside the "
+                    + "non-saturated range of the output activation. Weights are drawn when MCMC initializes "
+                    + "its state, so the network must also be listed as an init of the MCMC. Default is none.",
+            WeightInit.none, WeightInit.values());
+
+    public Input<ParametricDistribution> initDistributionInput = new Input<>(
+            "initDistribution",
+            "Distribution to draw initial weights from when init is 'prior', typically the prior on the weights.");
+
+    public Input<ArrayList<Integer>> ranksInput = new Input<>(
+            "ranks",
+            "Rank of the weight matrix of each layer connection (n + 1 values, where n is the number of hidden layers), "
+                    + "or 0 for a full-rank layer. A layer of rank r > 0 takes two consecutive weight parameters: "
+                    + "a left factor of shape [nInputs × r] and a right factor of shape [(r + 1) × nOutputs], "
+                    + "whose first row holds the bias of each output. "
+                    + "Default is all layers full-rank.",
+            new ArrayList<>(), Input.Validate.OPTIONAL);
+
+    public Input<RealParameter> convWeightsInput = new Input<>(
+            "convWeights",
+            "Weights of an optional 1D convolutional input layer over the ordered predictor rows (e.g., time bins), "
+                    + "shared across rows. Flattened matrix of shape [(nPredictors × kernelWidth + 1) × convChannels]. "
+                    + "If not given, predictors feed the first dense layer directly.");
+
+    public Input<Integer> convChannelsInput = new Input<>(
+            "convChannels",
+            "Number of output channels (filters) of the convolutional layer. "
+                    + "Default is the number of predictors.");
+
+    public Input<Integer> kernelWidthInput = new Input<>(
+            "kernelWidth",
+            "Number of taps of each convolutional filter, i.e., the current row and kernelWidth - 1 lagged rows. "
+                    + "Default is 3.",
+            3, Input.Validate.OPTIONAL);
+
+    public Input<Integer> dilationInput = new Input<>(
+            "dilation",
+            "Spacing, in rows, between consecutive taps of the convolutional filters. Default is 1.",
+            1, Input.Validate.OPTIONAL);
+
+    public Input<BayesMLPScheduler> schedulerInput = new Input<>(
+            "scheduler",
+            "Optional scheduler shared by several networks. If given, the forward pass is deferred until the "
+                    + "output is first read, and all dirty networks using the scheduler are evaluated together, "
+                    + "concurrently.");
+
+    public Input<ArrayList<Integer>> knotsInput = new Input<>(
+            "knots",
+            "Predictor rows (0-based) at which the network is evaluated. If given, the output of the other rows "
+                    + "is interpolated along the row index between the nearest knots, and held constant before "
+                    + "the first and after the last knot. Useful when predictors are smooth functions of finely "
+                    + "binned time. Default is all rows.",
+            new ArrayList<>(), Input.Validate.OPTIONAL);
+
+    public Input<Interpolation> interpolationInput = new Input<>(
+            "interpolation",
+            "Interpolation between knots: 'linear', or 'monotone' for a smooth cubic that preserves monotonicity "
+                    + "and does not overshoot the knot values. Default is linear.",
+            Interpolation.linear, Interpolation.values());
+
+    public Input<Boolean> uniquePredictorsInput = new Input<>(
+            "uniquePredictors",
+            "Whether to evaluate the network only once per distinct predictor row, copying the output to rows "
+                    + "with identical predictors. Cannot be combined with knots. Default is false.",
+            false, Input.Validate.OPTIONAL);
+
+    public Input<Boolean> logActivityInput = new Input<>(
+            "logActivity",
+            "Whether to log, after the weights, the fraction of evaluated rows for which each hidden unit "
+                    + "has a non-zero activation. Units with an activity of 0 (e.g., dead ReLU units) "
+                    + "do not contribute to the output. Default is false.",
+            false, Input.Validate.OPTIONAL);
+
     RealMatrix predictors; // Input predictors matrix of shape [predictorSize × nPredictors]
-    List<Integer> nodes; // Number of neurons in each layer of the network, of length nHiddenLayers + 2
-    ArrayList<RealParameter> weights; // Flattened weights for each layer
-    RealMatrix[] weightMatrices; // Weight matrices for each layer, shaped [(nInputs + 1) × nOutputs]
-    RealMatrix output;
+    RealMatrix inputs; // Network inputs: the predictors, lag-expanded if a convolutional layer is used, at the evaluated rows only
+    int[] knots; // Rows at which the network is evaluated before interpolation, or null
+    int[] rowMap; // Evaluated row providing the output of each predictor row, or null
+    boolean hasConv; // Whether the first layer is a convolutional layer
+    List<Integer> nodes; // Number of neurons in each layer of the network, of length nHiddenLayers + 2 (+ 1 with conv)
+    ArrayList<RealParameter> weights; // Flattened weights (or low-rank factors) for each layer, starting with the convolutional layer if any
+    int[] ranks; // Rank of each layer's weight matrix, or 0 for full-rank layers
     ActivationFunction hiddenActivation;
     ActivationFunction outputActivation;
+    BayesMLPScheduler scheduler; // Scheduler evaluating this network together with others, or null
+    String architecture; // Key identifying networks whose forward passes can be fused when they share their inputs
+    MLPKernel kernel; // Architecture-specialized forward kernel, or null to use the generic MLPUtil engine
+    double[][] predictorRows; // Rows of the inputs matrix, as consumed by the kernel
+
+    volatile Snapshot snapshot; // Latest published forward pass, read without locking
+    private Snapshot storedSnapshot;
+    private volatile int version; // Incremented whenever the parameters may have changed, see currentSnapshot()
+    private int storedVersion;
+    volatile List<Snapshot> candidateSnapshots = List.of(); // Results of the last evaluateCandidates call
+
+    /**
+     * Immutable result of a forward pass together with the parameter values it was computed from.
+     * <p>
+     * Snapshots are never modified after construction and are published through a volatile field,
+     * so concurrent readers always see an output vector that corresponds to one complete set of weights.
+     * The pre-activation values of the output layer are kept, so that a change to the parameters of the
+     * output activation function only requires re-applying the activation.
+     * Each snapshot is stamped with the {@link #version} of the network it is current for.
+     */
+    static final class Snapshot {
+        final double[][] weightValues; // Flattened weight values for each layer
+        final double[] hiddenValues; // Parameter values of the hidden activation function
+        final double[] preActivation; // Output layer values before the output activation, one per evaluated row
+        final double[] outputValues; // Parameter values of the output activation function
+        final double[] output; // Network output, one value per predictor row
+        final int version; // Network version the snapshot was published for, -1 if not yet published
+
+        Snapshot(double[][] weightValues, double[] hiddenValues, double[] preActivation,
+                 double[] outputValues, double[] output, int version) {
+            this.weightValues = weightValues;
+            this.hiddenValues = hiddenValues;
+            this.preActivation = preActivation;
+            this.outputValues = outputValues;
+            this.output = output;
+            this.version = version;
+        }
+
+        /**
+         * Returns this snapshot stamped with the given network version, sharing all arrays.
+         */
+        Snapshot withVersion(int version) {
+            if (version == this.version)
+                return this;
+            return new Snapshot(weightValues, hiddenValues, preActivation, outputValues, output, version);
+        }
+
+        /**
+         * Checks whether the pre-activation values of this snapshot were computed
+         * from the current weights and hidden activation parameters.
+         */
+        boolean matchesNetwork(List<RealParameter> weights, ActivationFunction hiddenActivation) {
+            for (int i = 0; i < weightValues.length; i++) {
+                RealParameter layerWeights = weights.get(i);
+                for (int j = 0; j < weightValues[i].length; j++) {
+                    if (weightValues[i][j] != layerWeights.getArrayValue(j))
+                        return false;
+                }
+            }
+            return Arrays.equals(hiddenValues, hiddenActivation.getParameterValues());
+        }
+
+        /**
+         * Checks whether the output of this snapshot was computed from the current output activation parameters.
+         */
+        boolean matchesOutputActivation(ActivationFunction outputActivation) {
+            return Arrays.equals(outputValues, outputActivation.getParameterValues());
+        }
+    }
 
     @Override
     public void initAndValidate() {
@@ -86,57 +267,582 @@ public class BayesMLP extends CalculationNode implements Function, Loggable {
         nodes = nodesInput.get();
         nodes.add(0, predictors.getColumnDimension());
         nodes.add(1);
-        weights = weightsInput.get();
+        weights = new ArrayList<>(weightsInput.get());
         hiddenActivation = hiddenActivationInput.get();
         outputActivation = outputActivationInput.get();
 
-        if (nodes.size() - 1 != weights.size())
+        ranks = new int[nodes.size() - 1];
+        if (!ranksInput.get().isEmpty()) {
+            if (ranksInput.get().size() != ranks.length)
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Invalid network architecture: expected one rank per layer connection (%d), but found %d.",
+                                ranks.length, ranksInput.get().size()
+                        )
+                );
+            for (int i = 0; i < ranks.length; i++) {
+                ranks[i] = ranksInput.get().get(i);
+                if (ranks[i] < 0 || ranks[i] >= Math.min(nodes.get(i), nodes.get(i + 1)))
+                    throw new IllegalArgumentException(
+                            String.format(
+                                    "Invalid rank %d for layer %d: must be 0 (full rank) or smaller than both "
+                                            + "the number of inputs (%d) and the number of outputs (%d).",
+                                    ranks[i], i + 1, nodes.get(i), nodes.get(i + 1)
+                            )
+                    );
+            }
+        }
+
+        int nLowRank = (int) Arrays.stream(ranks).filter(r -> r > 0).count();
+        if (nodes.size() - 1 + nLowRank != weights.size())
             throw new IllegalArgumentException(
                     String.format(
-                            "Invalid network architecture: expected one weight parameter per layer connection. "
-                                    + "Found %d hidden layer definitions but %d weight parameter sets. "
-                                    + "The number of weight parameters must equal the number of hidden layers plus one.",
-                            nodes.size() - 2, weights.size()
+                            "Invalid network architecture: expected one weight parameter per layer connection "
+                                    + "(two for low-rank layers). "
+                                    + "Found %d hidden layer definitions and %d low-rank layers but %d weight parameter sets. "
+                                    + "The number of weight parameters must equal the number of hidden layers plus one, "
+                                    + "plus the number of low-rank layers.",
+                            nodes.size() - 2, nLowRank, weights.size()
                     )
             );
 
-        weightMatrices = new RealMatrix[weights.size()];
-        for (int i = 0; i < weights.size(); i++) {
+        inputs = predictors;
+        hasConv = convWeightsInput.get() != null;
+        if (hasConv) {
+            int kernelWidth = kernelWidthInput.get();
+            int dilation = dilationInput.get();
+            int channels = convChannelsInput.get() != null ? convChannelsInput.get() : predictors.getColumnDimension();
+            if (kernelWidth < 1 || dilation < 1 || channels < 1)
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Invalid convolutional layer: kernelWidth (%d), dilation (%d) "
+                                        + "and convChannels (%d) must all be positive.",
+                                kernelWidth, dilation, channels
+                        )
+                );
+
+            // Predictors are fixed, so the convolution is a dense layer over the lag-expanded predictors
+            inputs = MLPUtil.lag_expand(predictors, kernelWidth, dilation);
+            nodes.set(0, channels);
+            nodes.add(0, inputs.getColumnDimension());
+            weights.add(0, convWeightsInput.get());
+            ranks = IntStream.concat(IntStream.of(0), Arrays.stream(ranks)).toArray();
+        }
+
+        selectEvaluatedRows();
+
+        for (int i = 0, p = 0; i < ranks.length; i++) {
             int nInput = nodes.get(i) + 1;  // Add 1 to account for bias node
             int nOutput = nodes.get(i + 1);
-            weights.get(i).setDimension(nInput * nOutput);
-            weightMatrices[i] = MatrixUtils.createRealMatrix(nInput, nOutput);
+            if (ranks[i] > 0) {
+                // The bias row is not factorized: it is the first row of the right factor
+                weights.get(p++).setDimension((nInput - 1) * ranks[i]);
+                weights.get(p++).setDimension((ranks[i] + 1) * nOutput);
+            } else {
+                weights.get(p++).setDimension(nInput * nOutput);
+            }
         }
-        output = MLPUtil.forward(predictors, weightMatrices, hiddenActivation, outputActivation);
+        if (initInput.get() == WeightInit.prior && initDistributionInput.get() == null)
+            throw new IllegalArgumentException("Weight initialization 'prior' requires an initDistribution.");
+
+        kernel = null;
+        if (compileInput.get()) {
+            try {
+                // The output activation is applied separately, to keep the pre-activation values
+                kernel = MLPKernel.compile(nodes, ranks, hiddenActivation, new Identity());
+                predictorRows = inputs.getData();
+            } catch (IllegalStateException e) {
+                Log.warning.println("BayesMLP " + getID() + ": " + e.getMessage()
+                        + " Using the generic forward pass instead.");
+            }
+        }
+
+        scheduler = schedulerInput.get();
+        architecture = nodes + ":" + Arrays.toString(ranks) + ":" + inputs.getRowDimension() + ":"
+                + hiddenActivation.getClass().getName() + ":" + outputActivation.getClass().getName() + ":"
+                + (kernel != null);
+        if (scheduler != null)
+            scheduler.register(this);
+
+        snapshot = null;
+        update();
     }
 
-    @Override
-    public int getDimension() {
-        return predictors.getRowDimension();
+    /**
+     * Restricts the network inputs to the rows that are evaluated, according to the knots or
+     * uniquePredictors inputs. The output of the remaining rows is derived in {@link #activate}.
+     */
+    private void selectEvaluatedRows() {
+        knots = null;
+        rowMap = null;
+        int nRows = inputs.getRowDimension();
+
+        if (!knotsInput.get().isEmpty()) {
+            if (uniquePredictorsInput.get())
+                throw new IllegalArgumentException("Options knots and uniquePredictors cannot be combined.");
+            knots = knotsInput.get().stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+            if (knots[0] < 0 || knots[knots.length - 1] >= nRows)
+                throw new IllegalArgumentException(
+                        String.format("Invalid knots: row indices must be between 0 and %d.", nRows - 1)
+                );
+            inputs = inputs.getSubMatrix(knots, IntStream.range(0, inputs.getColumnDimension()).toArray());
+        } else if (uniquePredictorsInput.get()) {
+            Map<List<Double>, Integer> uniqueRows = new LinkedHashMap<>();
+            List<Integer> evaluatedRows = new ArrayList<>();
+            rowMap = new int[nRows];
+            for (int n = 0; n < nRows; n++) {
+                List<Double> row = Arrays.stream(inputs.getRow(n)).boxed().collect(Collectors.toList());
+                Integer index = uniqueRows.get(row);
+                if (index == null) {
+                    index = evaluatedRows.size();
+                    uniqueRows.put(row, index);
+                    evaluatedRows.add(n);
+                }
+                rowMap[n] = index;
+            }
+            inputs = inputs.getSubMatrix(
+                    evaluatedRows.stream().mapToInt(Integer::intValue).toArray(),
+                    IntStream.range(0, inputs.getColumnDimension()).toArray()
+            );
+        }
     }
 
+    /**
+     * Draws initial weights according to the chosen strategy, layer by layer.
+     * Called by MCMC on every initialization attempt, so each attempt starts from new weights.
+     * <p>
+     * After drawing each hidden layer, units that would start outside the active range of the hidden activation
+     * for every row (e.g., dead ReLU units) have their bias shifted. The output layer is then scaled and shifted
+     * so that all initial outputs fall inside the non-saturated range of the output activation.
+     */
     @Override
-    public double getArrayValue(int n) {
-        boolean needsRecalculation = false;
+    public void initStateNodes() {
+        if (initInput.get() == WeightInit.none)
+            return;
 
-        for (int i = 0; i < weights.size(); i++) {
-            double[] w = weights.get(i).getDoubleValues();
+        RealMatrix x = inputs;
+        for (int i = 0, p = 0; i < ranks.length; i++) {
+            int nInput = nodes.get(i);
             int nOutput = nodes.get(i + 1);
-            for (int j = 0; j < w.length; j++) {
-                int row = j / nOutput;
-                int col = j % nOutput;
-                if (weightMatrices[i].getEntry(row, col) != w[j]) {
-                    needsRecalculation = true;
-                    weightMatrices[i].setEntry(row, col, w[j]);
+            double sd = (initInput.get() == WeightInit.glorot)
+                    ? Math.sqrt(2.0 / (nInput + nOutput))
+                    : Math.sqrt(2.0 / nInput);
+
+            if (ranks[i] > 0) {
+                // Each entry of the product sums rank terms, so factor entries get variance sd / sqrt(rank)
+                RealParameter left = weights.get(p++);
+                RealParameter right = weights.get(p++);
+                if (initInput.get() == WeightInit.prior) {
+                    WeightInitUtil.drawFromDistribution(left, initDistributionInput.get());
+                    WeightInitUtil.drawFromDistribution(right, initDistributionInput.get());
+                } else {
+                    double factorSd = Math.sqrt(sd / Math.sqrt(ranks[i]));
+                    WeightInitUtil.drawScaled(left, 0, factorSd);
+                    WeightInitUtil.drawScaled(right, nOutput, factorSd);
                 }
+
+                // The output layer is always full-rank, so this is a hidden layer; its bias is in the right factor
+                RealMatrix z = MLPUtil.layer_linear(
+                        x, toMatrix(left.getDoubleValues(), ranks[i]), toMatrix(right.getDoubleValues(), nOutput)
+                );
+                WeightInitUtil.ensureActive(z, right, hiddenActivation.getActiveRange());
+                x = hiddenActivation.apply(z);
+                continue;
+            }
+
+            RealParameter layerWeights = weights.get(p++);
+            if (initInput.get() == WeightInit.prior)
+                WeightInitUtil.drawFromDistribution(layerWeights, initDistributionInput.get());
+            else
+                WeightInitUtil.drawScaled(layerWeights, nOutput, sd);
+
+            RealMatrix z = MLPUtil.layer_linear(x, toMatrix(layerWeights.getDoubleValues(), nOutput));
+            if (i < ranks.length - 1) {
+                WeightInitUtil.ensureActive(z, layerWeights, hiddenActivation.getActiveRange());
+                x = hiddenActivation.apply(z);
+            } else {
+                WeightInitUtil.fitToRange(z, layerWeights, outputActivation.getActiveRange());
+            }
+        }
+        // The weights were drawn outside the calculation phase, so the published snapshot is stale
+        version++;
+    }
+
+    @Override
+    public void getInitialisedStateNodes(List<StateNode> stateNodes) {
+        if (initInput.get() != WeightInit.none)
+            stateNodes.addAll(weights);
+    }
+
+    /**
+     * Reshapes flattened (row-major) weight values into a weight matrix with the given number of columns.
+     */
+    private static RealMatrix toMatrix(double[] weightValues, int nOutput) {
+        RealMatrix matrix = MatrixUtils.createRealMatrix(weightValues.length / nOutput, nOutput);
+        for (int j = 0; j < weightValues.length; j++) {
+            matrix.setEntry(j / nOutput, j % nOutput, weightValues[j]);
+        }
+        return matrix;
+    }
+
+    /**
+     * Recomputes the network output if the weights or activation parameters changed
+     * since the last published snapshot.
+     * <p>
+     * If only the output activation parameters changed, the activation is re-applied to the cached
+     * pre-activation values instead of running a full forward pass. If the current weights are one of the
+     * candidates of the last {@link #evaluateCandidates} call, its precomputed result is used.
+     * Weight matrices are rebuilt from a private copy of the weight values, so no state shared
+     * with readers is mutated; the new snapshot is published in a single volatile write,
+     * stamped with the current {@link #version}.
+     *
+     * @return the snapshot matching the current parameter values
+     */
+    synchronized Snapshot update() {
+        int currentVersion = version;
+        Snapshot current = snapshot;
+        if (current != null && current.matchesNetwork(weights, hiddenActivation)) {
+            if (current.matchesOutputActivation(outputActivation)) {
+                snapshot = current.withVersion(currentVersion);
+                return snapshot;
+            }
+
+            current = new Snapshot(
+                    current.weightValues, current.hiddenValues, current.preActivation,
+                    outputActivation.getParameterValues(), activate(current.preActivation), currentVersion
+            );
+        } else {
+            current = findCandidate();
+            if (current == null) {
+                double[][] weightValues = new double[weights.size()][];
+                for (int i = 0; i < weights.size(); i++) {
+                    weightValues[i] = weights.get(i).getDoubleValues();
+                }
+                double[] hiddenValues = hiddenActivation.getParameterValues();
+                double[] outputValues = outputActivation.getParameterValues();
+
+                double[] preActivation = forward(weightValues);
+                current = new Snapshot(
+                        weightValues, hiddenValues, preActivation, outputValues, activate(preActivation), currentVersion
+                );
+            }
+        }
+
+        snapshot = current.withVersion(currentVersion);
+        return snapshot;
+    }
+
+    /**
+     * Brings several networks that share their architecture and inputs up to date,
+     * running a single fused forward pass for those that need one.
+     * <p>
+     * The first layer of all fused networks is computed as one multiplication of the shared inputs
+     * by their weight matrices stacked side by side. Networks that only need their output activation
+     * re-applied, or that use a compiled kernel, are updated individually.
+     *
+     * @param batch networks with the same {@link #architecture} and the same inputs
+     */
+    static void updateBatch(List<BayesMLP> batch) {
+        BayesMLP first = batch.get(0);
+        List<BayesMLP> fused = new ArrayList<>();
+        for (BayesMLP mlp : batch) {
+            if (mlp.kernel == null && mlp.needsForward())
+                fused.add(mlp);
+            else
+                mlp.update();
+        }
+        if (fused.size() < 2) {
+            fused.forEach(BayesMLP::update);
+            return;
+        }
+
+        int nNetworks = fused.size();
+        double[][][] weightValues = new double[nNetworks][][];
+        double[][] hiddenValues = new double[nNetworks][];
+        double[][] outputValues = new double[nNetworks][];
+        RealMatrix[][][] layerFactors = new RealMatrix[nNetworks][][];
+        ActivationFunction[] hiddenActivations = new ActivationFunction[nNetworks];
+        int[] versions = new int[nNetworks];
+        for (int k = 0; k < nNetworks; k++) {
+            BayesMLP mlp = fused.get(k);
+            versions[k] = mlp.version;
+            weightValues[k] = new double[mlp.weights.size()][];
+            for (int i = 0; i < mlp.weights.size(); i++) {
+                weightValues[k][i] = mlp.weights.get(i).getDoubleValues();
+            }
+            hiddenValues[k] = mlp.hiddenActivation.getParameterValues();
+            outputValues[k] = mlp.outputActivation.getParameterValues();
+            layerFactors[k] = mlp.toLayerFactors(weightValues[k]);
+            hiddenActivations[k] = mlp.hiddenActivation;
+        }
+
+        RealMatrix[] preActivations = MLPUtil.forward_linear_batched(first.inputs, layerFactors, hiddenActivations);
+        for (int k = 0; k < nNetworks; k++) {
+            BayesMLP mlp = fused.get(k);
+            double[] preActivation = preActivations[k].getColumn(0);
+            mlp.publish(new Snapshot(
+                    weightValues[k], hiddenValues[k], preActivation, outputValues[k], mlp.activate(preActivation),
+                    versions[k]
+            ));
+        }
+    }
+
+    /**
+     * Checks whether bringing this network up to date requires a forward pass.
+     */
+    private boolean needsForward() {
+        Snapshot current = snapshot;
+        return (current == null || !current.matchesNetwork(weights, hiddenActivation)) && findCandidate() == null;
+    }
+
+    private synchronized void publish(Snapshot current) {
+        snapshot = current;
+    }
+
+    /**
+     * Performs a forward pass over all evaluated rows with the given weight values,
+     * using the specialized kernel when available.
+     *
+     * @param weightValues Flattened (row-major) weight matrices, or low-rank factors, for each layer.
+     * @return the pre-activation values of the output layer, one value per evaluated row.
+     */
+    private double[] forward(double[][] weightValues) {
+        double[] preActivation = new double[inputs.getRowDimension()];
+
+        if (kernel != null) {
+            double[][] result = kernel.forward(predictorRows, weightValues);
+            for (int n = 0; n < preActivation.length; n++) {
+                preActivation[n] = result[n][0];
+            }
+            return preActivation;
+        }
+
+        return MLPUtil.forward_linear(inputs, toLayerFactors(weightValues), hiddenActivation).getColumn(0);
+    }
+
+    /**
+     * Reshapes flattened weight values into the weight matrices (or low-rank factors) of each layer.
+     */
+    private RealMatrix[][] toLayerFactors(double[][] weightValues) {
+        RealMatrix[][] layerFactors = new RealMatrix[ranks.length][];
+        for (int i = 0, p = 0; i < ranks.length; i++) {
+            int nOutput = nodes.get(i + 1);
+            layerFactors[i] = (ranks[i] > 0)
+                    ? new RealMatrix[]{toMatrix(weightValues[p++], ranks[i]), toMatrix(weightValues[p++], nOutput)}
+                    : new RealMatrix[]{toMatrix(weightValues[p++], nOutput)};
+        }
+        return layerFactors;
+    }
+
+    /**
+     * Returns the snapshot of the last evaluated candidate matching the current parameter values, or null.
+     */
+    private Snapshot findCandidate() {
+        for (Snapshot candidate : candidateSnapshots) {
+            if (candidate.matchesNetwork(weights, hiddenActivation) && candidate.matchesOutputActivation(outputActivation))
+                return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates the network for several candidate weight configurations in one batched pass,
+     * without modifying the weight parameters.
+     * <p>
+     * The first layer of all candidates is computed as a single, wider matrix multiplication.
+     * Results are kept until the next call, so that setting the weights to one of the candidates
+     * afterwards (e.g., to evaluate its likelihood) does not require another forward pass.
+     *
+     * @param candidates weight values of each candidate, indexed as [candidate][parameter][entry],
+     *                   with parameters in the order of {@link #getWeights()}
+     * @return network outputs of each candidate, indexed as [candidate][row], empty if there are no candidates
+     * @throws IllegalArgumentException if a candidate does not match the shapes of the weight parameters
+     */
+    public double[][] evaluateCandidates(double[][][] candidates) {
+        if (candidates.length == 0) {
+            candidateSnapshots = List.of();
+            return new double[0][];
+        }
+
+        RealMatrix[][][] layerFactors = new RealMatrix[candidates.length][][];
+        double[][][] weightValues = new double[candidates.length][][];
+        for (int k = 0; k < candidates.length; k++) {
+            if (candidates[k].length != weights.size())
+                throw new IllegalArgumentException(
+                        String.format("Candidate %d has %d weight parameters, but the network has %d.",
+                                k, candidates[k].length, weights.size())
+                );
+            weightValues[k] = new double[weights.size()][];
+            for (int i = 0; i < weights.size(); i++) {
+                if (candidates[k][i].length != weights.get(i).getDimension())
+                    throw new IllegalArgumentException(
+                            String.format("Candidate %d has %d values for weight parameter %d, but %d are required.",
+                                    k, candidates[k][i].length, i, weights.get(i).getDimension())
+                    );
+                weightValues[k][i] = candidates[k][i].clone();
+            }
+            layerFactors[k] = toLayerFactors(weightValues[k]);
+        }
+
+        double[] hiddenValues = hiddenActivation.getParameterValues();
+        double[] outputValues = outputActivation.getParameterValues();
+        RealMatrix[] preActivations = MLPUtil.forward_linear_batched(inputs, layerFactors, hiddenActivation);
+
+        List<Snapshot> snapshots = new ArrayList<>();
+        double[][] outputs = new double[candidates.length][];
+        for (int k = 0; k < candidates.length; k++) {
+            double[] preActivation = preActivations[k].getColumn(0);
+            double[] output = activate(preActivation);
+            snapshots.add(new Snapshot(weightValues[k], hiddenValues, preActivation, outputValues, output, -1));
+            outputs[k] = output.clone();
+        }
+        candidateSnapshots = Collections.unmodifiableList(snapshots);
+
+        return outputs;
+    }
+
+    /**
+     * Evaluates the network with its current weights on new predictor values, e.g., to predict rates
+     * for forecast periods or counterfactual trait values. The network state is not modified.
+     * <p>
+     * Predictor values are passed to the network as given, like the network's own predictors, whose matrix is
+     * built before the predictor parameters are normalized. If a convolutional layer is used, rows are treated
+     * as ordered. Every row is evaluated, regardless of knots.
+     *
+     * @param predictorValues predictor values indexed as [predictor][row], in the order of the predictor input
+     * @return the network output for each row
+     * @throws IllegalArgumentException if the number of predictors differs from the network's,
+     *                                  or the predictors have different lengths
+     */
+    public double[] predict(double[][] predictorValues) {
+        if (predictorValues.length != predictors.getColumnDimension())
+            throw new IllegalArgumentException(
+                    String.format("Expected %d predictors, but found %d.",
+                            predictors.getColumnDimension(), predictorValues.length)
+            );
+
+        for (int p = 0; p < predictorValues.length; p++) {
+            if (predictorValues[p].length != predictorValues[0].length)
+                throw new IllegalArgumentException(
+                        String.format("All predictors must have the same length. "
+                                        + "Predictor 0 has length %d, but predictor %d has length %d.",
+                                predictorValues[0].length, p, predictorValues[p].length)
+                );
+        }
+
+        RealMatrix x = MatrixUtils.createRealMatrix(predictorValues).transpose();
+        if (hasConv)
+            x = MLPUtil.lag_expand(x, kernelWidthInput.get(), dilationInput.get());
+
+        double[][] weightValues = new double[weights.size()][];
+        for (int i = 0; i < weights.size(); i++) {
+            weightValues[i] = weights.get(i).getDoubleValues();
+        }
+        double[] output = MLPUtil.forward_linear(x, toLayerFactors(weightValues), hiddenActivation).getColumn(0);
+        outputActivation.applyInPlace(output);
+        return output;
+    }
+
+    /**
+     * Applies the output activation function to the given pre-activation values of the evaluated rows,
+     * then derives the output of every predictor row, interpolating between knots if used.
+     */
+    private double[] activate(double[] preActivation) {
+        double[] output = preActivation.clone();
+        outputActivation.applyInPlace(output);
+
+        int nRows = predictors.getRowDimension();
+        if (knots != null) {
+            return (interpolationInput.get() == Interpolation.monotone)
+                    ? InterpolationUtil.monotone(knots, output, nRows)
+                    : InterpolationUtil.linear(knots, output, nRows);
+        }
+        if (rowMap != null) {
+            double[] expanded = new double[nRows];
+            for (int n = 0; n < nRows; n++) {
+                expanded[n] = output[rowMap[n]];
             }
+            return expanded;
         }
+        return output;
+    }
+
+    /**
+     * Returns a snapshot that is consistent with the current parameter values.
+     * <p>
+     * BEAST calls {@link #requiresRecalculation()} whenever a parameter of the network may have changed,
+     * which increments the network {@link #version}. A read therefore only compares the version stamp
+     * of the published snapshot with the current one; the parameters are compared only after a change.
+     * Parameters modified outside of MCMC are picked up after {@link #requiresRecalculation()} is called,
+     * as for any other calculation node.
+     * With a scheduler, the first stale read evaluates all dirty networks of the scheduler.
+     */
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        if (current.version == version)
+            return current;
+
+        if (scheduler != null)
+            scheduler.flush();
+        return update();
+    }
+
+    /**
+     * Returns the weight parameters of the network in layer order, starting with the convolutional layer if any.
+     * Low-rank layers contribute their two factors.
+     */
+    public List<RealParameter> getWeights() {
+        return Collections.unmodifiableList(weights);
+    }
+
+    @Override
+    public int getDimension() {
+        return predictors.getRowDimension();
+    }
+
+    @Override
+    public double getArrayValue(int n) {
+        return currentSnapshot().output[n];
+    }
+
+    /**
+     * Returns a copy of the full output vector, taken from a single snapshot
+     * so that all values correspond to the same weights.
+     */
+    @Override
+    public double[] getDoubleValues() {
+        return currentSnapshot().output.clone();
+    }
 
-        if (needsRecalculation) {
-            output = MLPUtil.forward(predictors, weightMatrices, hiddenActivation, outputActivation);
+    @Override
+    protected boolean requiresRecalculation() {
+        version++;
+        if (scheduler != null) {
+            // Defer to the scheduler, which evaluates all dirty networks together on first read
+            scheduler.schedule(this);
+        } else {
+            // Recompute eagerly in the calculation phase, so that reads during likelihood evaluation,
+            // possibly from several threads, only see an already published snapshot.
+            update();
         }
+        return true;
+    }
 
-        return output.getEntry(n,0);
+    @Override
+    protected void store() {
+        storedSnapshot = snapshot;
+        storedVersion = version;
+        super.store();
+    }
+
+    @Override
+    protected void restore() {
+        // The parameters are back to their stored values, so the stored snapshot is current again,
+        // unless it was already stale when stored (e.g., a scheduled network that was never read).
+        Snapshot stored = storedSnapshot;
+        version++;
+        snapshot = stored.version == storedVersion ? stored.withVersion(version) : stored;
+        super.restore();
     }
 
     /**
@@ -154,27 +860,87 @@ public class BayesMLP extends CalculationNode implements Function, Loggable {
      *   <li><b>i</b> – input neuron index, including the bias term (i = 0)</li>
      *   <li><b>j</b> – output neuron index</li>
      * </ul>
+     *
+     * <p>If a convolutional layer is used, its weights come first, with headers
+     * <code>&lt;id&gt;W.Conv[&lt;i&gt;][&lt;j&gt;]</code>, where <b>i</b> is the input index
+     * (i = 0 for bias, then i = 1 + k × nPredictors + p for predictor p at the k-th tap)
+     * and <b>j</b> is the output channel index. Dense layers are numbered from 1 as usual.
+     *
+     * <p>If logActivity is set, the weights are followed by one column per hidden unit,
+     * <code>&lt;id&gt;Activity.Layer&lt;X&gt;[&lt;j&gt;]</code>, for unit <b>j</b> of the outputs of layer <b>X</b>
+     * (<code>Activity.Conv[&lt;j&gt;]</code> for the convolutional channels).
      */
     @Override
     public void init(PrintStream out) {
         String prefix = (getID() != null) ? getID() : "";
 
-        for (int i = 0; i < weightMatrices.length; i++) {
-            for (int j = 0; j < weightMatrices[i].getRowDimension(); j++) {
-                for (int k = 0; k < weightMatrices[i].getColumnDimension(); k++) {
-                    out.printf("%sW.Layer%d[%d][%d]\t", prefix, i + 1, j, k);
+        for (int i = 0; i < ranks.length; i++) {
+            for (int j = 0; j < nodes.get(i) + 1; j++) {
+                for (int k = 0; k < nodes.get(i + 1); k++) {
+                    out.printf("%sW.%s[%d][%d]\t", prefix, layerName(i), j, k);
+                }
+            }
+        }
+
+        if (logActivityInput.get()) {
+            for (int i = 0; i < ranks.length - 1; i++) {
+                for (int j = 0; j < nodes.get(i + 1); j++) {
+                    out.printf("%sActivity.%s[%d]\t", prefix, layerName(i), j);
                 }
             }
         }
     }
 
+    /**
+     * Returns the name of the i-th layer connection used in log headers.
+     */
+    private String layerName(int i) {
+        int offset = hasConv ? 1 : 0;
+        return (i < offset) ? "Conv" : "Layer" + (i - offset + 1);
+    }
+
+    /**
+     * Logs the network weights. For low-rank layers, the implied full weight matrix
+     * (the bias row of the right factor, then the product of the two factors) is logged. If logActivity is set, the activity
+     * of the hidden units is computed for the current weights and logged after them.
+     */
     @Override
     public void log(long sample, PrintStream out) {
-        for (RealParameter layerWeights : weights) {
-            for (Double w : layerWeights.getDoubleValues()) {
+        for (int i = 0, p = 0; i < ranks.length; i++) {
+            double[] layerWeights;
+            if (ranks[i] > 0) {
+                int nOutput = nodes.get(i + 1);
+                RealMatrix left = toMatrix(weights.get(p++).getDoubleValues(), ranks[i]);
+                RealMatrix right = toMatrix(weights.get(p++).getDoubleValues(), nOutput);
+                // The bias row, followed by the product of the left factor and the remaining rows of the right factor
+                RealMatrix block = left.multiply(right.getSubMatrix(1, ranks[i], 0, nOutput - 1));
+                layerWeights = new double[(block.getRowDimension() + 1) * nOutput];
+                for (int j = 0; j < layerWeights.length; j++) {
+                    layerWeights[j] = (j < nOutput)
+                            ? right.getEntry(0, j)
+                            : block.getEntry(j / nOutput - 1, j % nOutput);
+                }
+            } else {
+                layerWeights = weights.get(p++).getDoubleValues();
+            }
+
+            for (Double w : layerWeights) {
                 out.print(w + "\t");
             }
         }
+
+        if (logActivityInput.get()) {
+            double[][] weightValues = new double[weights.size()][];
+            for (int i = 0; i < weights.size(); i++) {
+                weightValues[i] = weights.get(i).getDoubleValues();
+            }
+            double[][] activity = MLPUtil.hidden_activity(inputs, toLayerFactors(weightValues), hiddenActivation);
+            for (double[] layerActivity : activity) {
+                for (double a : layerActivity) {
+                    out.print(a + "\t");
+                }
+            }
+        }
     }
 
     @Override
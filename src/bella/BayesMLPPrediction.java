@@ -0,0 +1,130 @@
+package bella;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Description;
+import beast.base.core.Function;
+import beast.base.core.Input;
+import beast.base.core.Loggable;
+import beast.base.inference.parameter.RealParameter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@Description("Predictions of a BayesMLP for a separate grid of predictor values (e.g., forecast periods or "
+        + "counterfactual trait values), using the network's current weights and activations. "
+        + "The prediction is not part of the model: the forward pass runs only when the values are read, "
+        + "typically when logging, and is reused until the network changes.")
+public class BayesMLPPrediction extends BEASTObject implements Function, Loggable {
+
+    public Input<BayesMLP> mlpInput = new Input<>(
+            "mlp",
+            "Network used to make predictions.",
+            Input.Validate.REQUIRED);
+
+    public Input<ArrayList<RealParameter>> predictorsInput = new Input<>(
+            "predictor",
+            "List of predictor parameters defining the grid to predict on, in the same order as the "
+                    + "predictors of the network. Values are passed to the network as given, "
+                    + "in the same way as the network's own predictors.",
+            new ArrayList<>(), Input.Validate.REQUIRED);
+
+    private BayesMLP mlp;
+    private List<RealParameter> predictors;
+    private double[] cachedKey; // Weights, activation parameters and grid values the cached output was computed from
+    private double[] cachedOutput;
+
+    @Override
+    public void initAndValidate() {
+        mlp = mlpInput.get();
+        predictors = predictorsInput.get();
+        cachedKey = null;
+        cachedOutput = null;
+
+        // Fail early on grid shapes that do not fit the network
+        getOutput();
+    }
+
+    /**
+     * Returns the predictions for the current network and grid, running the forward pass
+     * only if either changed since the last call.
+     */
+    private synchronized double[] getOutput() {
+        double[] key = currentKey();
+        if (!Arrays.equals(key, cachedKey)) {
+            double[][] predictorValues = new double[predictors.size()][];
+            for (int p = 0; p < predictors.size(); p++) {
+                predictorValues[p] = predictors.get(p).getDoubleValues();
+            }
+            cachedOutput = mlp.predict(predictorValues);
+            cachedKey = key;
+        }
+        return cachedOutput;
+    }
+
+    /**
+     * Collects all values the predictions depend on into a single vector.
+     */
+    private double[] currentKey() {
+        List<double[]> parts = new ArrayList<>();
+        for (RealParameter weights : mlp.getWeights()) {
+            parts.add(weights.getDoubleValues());
+        }
+        parts.add(mlp.hiddenActivation.getParameterValues());
+        parts.add(mlp.outputActivation.getParameterValues());
+        for (RealParameter predictor : predictors) {
+            parts.add(predictor.getDoubleValues());
+        }
+
+        double[] key = new double[parts.stream().mapToInt(part -> part.length).sum()];
+        int k = 0;
+        for (double[] part : parts) {
+            System.arraycopy(part, 0, key, k, part.length);
+            k += part.length;
+        }
+        return key;
+    }
+
+    @Override
+    public int getDimension() {
+        return predictors.get(0).getDimension();
+    }
+
+    @Override
+    public double getArrayValue(int n) {
+        return getOutput()[n];
+    }
+
+    @Override
+    public double[] getDoubleValues() {
+        return getOutput().clone();
+    }
+
+    /**
+     * Generates one column header per grid row, <code>&lt;id&gt;.&lt;n&gt;</code> (1-based),
+     * or <code>&lt;id&gt;</code> for a single row.
+     */
+    @Override
+    public void init(PrintStream out) {
+        String prefix = (getID() != null) ? getID() : "prediction";
+        if (getDimension() == 1) {
+            out.print(prefix + "\t");
+            return;
+        }
+        for (int n = 0; n < getDimension(); n++) {
+            out.print(prefix + "." + (n + 1) + "\t");
+        }
+    }
+
+    @Override
+    public void log(long sample, PrintStream out) {
+        for (double value : getOutput()) {
+            out.print(value + "\t");
+        }
+    }
+
+    @Override
+    public void close(PrintStream out) {
+    }
+}
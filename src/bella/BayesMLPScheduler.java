@@ -0,0 +1,172 @@
+package bella;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Description;
+import beast.base.core.Input;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@Description("Coordinates the evaluation of many BayesMLP instances. Networks that become dirty are collected "
+        + "and evaluated together when the first of them is read, i.e., at the start of the likelihood evaluation. "
+        + "Instances with the same architecture and predictors are fused into one batched forward pass, "
+        + "whose first layer is a single matrix product. Fused passes, and the networks that cannot be fused "
+        + "(e.g., the same architecture over different predictors), run concurrently on a bounded thread pool.")
+public class BayesMLPScheduler extends BEASTObject implements AutoCloseable {
+
+    public Input<Integer> threadsInput = new Input<>(
+            "threads",
+            "Maximum number of threads used to evaluate networks, including the calling thread. "
+                    + "Default is the number of available processors.",
+            Runtime.getRuntime().availableProcessors(), Input.Validate.OPTIONAL);
+
+    private final Set<BayesMLP> pending = new LinkedHashSet<>(); // Dirty networks, in scheduling order
+    private final Map<BayesMLP, Integer> fusionGroups = new HashMap<>(); // Fusion group of each registered network
+    private final List<String> groupArchitectures = new ArrayList<>(); // Architecture of each fusion group
+    private final List<double[][]> groupInputs = new ArrayList<>(); // Inputs of each fusion group
+    private int threads;
+    private ExecutorService pool; // Worker threads, or null when evaluating on the calling thread only
+
+    @Override
+    public void initAndValidate() {
+        threads = threadsInput.get();
+        if (threads < 1)
+            throw new IllegalArgumentException(
+                    String.format("Invalid number of threads (%d): must be at least 1.", threads)
+            );
+
+        if (pool != null)
+            pool.shutdown();
+        pool = (threads > 1)
+                ? Executors.newFixedThreadPool(threads - 1, runnable -> {
+                    Thread thread = new Thread(runnable, "BayesMLPScheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+    }
+
+    /**
+     * Registers a network using this scheduler, assigning it to the fusion group of the networks that share
+     * its architecture and inputs. Inputs are fixed, so they are compared only once, when the network is
+     * initialized.
+     *
+     * @param mlp the network to register
+     */
+    synchronized void register(BayesMLP mlp) {
+        double[][] inputs = mlp.inputs.getData();
+        for (int group = 0; group < groupArchitectures.size(); group++) {
+            if (groupArchitectures.get(group).equals(mlp.architecture)
+                    && Arrays.deepEquals(groupInputs.get(group), inputs)) {
+                fusionGroups.put(mlp, group);
+                return;
+            }
+        }
+        fusionGroups.put(mlp, groupArchitectures.size());
+        groupArchitectures.add(mlp.architecture);
+        groupInputs.add(inputs);
+    }
+
+    /**
+     * Marks a network as dirty, deferring its forward pass to the next {@link #flush()}.
+     *
+     * @param mlp the network whose inputs changed
+     */
+    public synchronized void schedule(BayesMLP mlp) {
+        pending.add(mlp);
+    }
+
+    /**
+     * Evaluates all dirty networks.
+     * <p>
+     * Networks that share their architecture and inputs are first grouped, so that each group is evaluated
+     * with one fused forward pass. Networks over different inputs cannot be fused and form groups of their own.
+     * Groups are then spread over at most one batch per thread, largest first, so that batches have
+     * similar numbers of networks. All batches but one are submitted to the pool, while the calling thread
+     * evaluates the last one, then waits for the others to complete.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty())
+            return;
+
+        List<List<BayesMLP>> groups = groupByFusion(pending);
+        pending.clear();
+
+        List<List<List<BayesMLP>>> batches = new ArrayList<>();
+        int[] batchSizes = new int[Math.min(threads, groups.size())];
+        for (int i = 0; i < batchSizes.length; i++) {
+            batches.add(new ArrayList<>());
+        }
+        groups.sort(Comparator.comparingInt(group -> -group.size()));
+        for (List<BayesMLP> group : groups) {
+            int smallest = 0;
+            for (int i = 1; i < batchSizes.length; i++) {
+                if (batchSizes[i] < batchSizes[smallest])
+                    smallest = i;
+            }
+            batches.get(smallest).add(group);
+            batchSizes[smallest] += group.size();
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < batches.size() - 1; i++) {
+            List<List<BayesMLP>> batch = batches.get(i);
+            if (pool != null)
+                futures.add(pool.submit(() -> evaluate(batch)));
+            else
+                evaluate(batch);
+        }
+        evaluate(batches.get(batches.size() - 1));
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating BayesMLP networks.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to evaluate BayesMLP networks.", e.getCause());
+        }
+    }
+
+    /**
+     * Groups networks by fusion group, keeping the order in which the groups are first encountered.
+     */
+    synchronized List<List<BayesMLP>> groupByFusion(Collection<BayesMLP> networks) {
+        Map<Integer, List<BayesMLP>> groups = new LinkedHashMap<>();
+        for (BayesMLP mlp : networks) {
+            groups.computeIfAbsent(fusionGroups.get(mlp), key -> new ArrayList<>()).add(mlp);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static void evaluate(List<List<BayesMLP>> batch) {
+        for (List<BayesMLP> group : batch) {
+            BayesMLP.updateBatch(group);
+        }
+    }
+
+    /**
+     * Shuts down the worker threads. Later flushes evaluate all networks on the calling thread.
+     */
+    @Override
+    public synchronized void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
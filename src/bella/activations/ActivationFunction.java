@@ -39,4 +39,42 @@ public abstract class ActivationFunction extends CalculationNode {
         }
         return result;
     }
+
+    /**
+     * Apply the activation function element-wise to an array of values, in place.
+
+     * Default implementation: applies the element-wise function to each value.
+
+     * @param z pre-activation values, replaced by the transformed values
+     */
+    public void applyInPlace(double[] z) {
+        for (int i = 0; i < z.length; i++) {
+            z[i] = apply(z[i]);
+        }
+    }
+
+    /**
+     * Returns the current values of the parameters of this activation function.
+     * <p>
+     * Parameters may be estimated via MCMC, so callers caching activation outputs
+     * compare these values to detect changes. Default implementation: no parameters.
+     *
+     * @return parameter values, empty if the activation function has no parameters
+     */
+    public double[] getParameterValues() {
+        return new double[0];
+    }
+
+    /**
+     * Returns the interval of pre-activation values over which the activation function
+     * responds to its input, i.e., where it is neither saturated nor flat.
+     * <p>
+     * Used to choose initial weights that keep units away from saturation.
+     * Default implementation: the whole real line.
+     *
+     * @return interval [lower, upper], possibly with infinite ends
+     */
+    public double[] getActiveRange() {
+        return new double[]{Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+    }
 }
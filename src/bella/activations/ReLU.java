@@ -17,4 +17,9 @@ public class ReLU extends ActivationFunction {
     public double apply(double z){
         return Math.max(0.0, z);
     }
+
+    @Override
+    public double[] getActiveRange() {
+        return new double[]{0.0, Double.POSITIVE_INFINITY};
+    }
 }
@@ -1,6 +1,11 @@
 package bella.activations;
 
+import beast.base.core.Function;
 import beast.base.core.Input;
+import beast.base.inference.parameter.RealParameter;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
 
 /**
  * Sigmoid activation function with configurable lower and upper bounds,
@@ -8,56 +13,111 @@ import beast.base.core.Input;
  * <p>
  * Applies element-wise:
  *      f(z) = lower + (upper - lower) / (1 + exp(-shape * (z - midpoint)))
+ * <p>
+ * All parameters are {@link RealParameter}s, so they can be estimated via MCMC. The bounds are only
+ * checked at initialization: if both are estimated, they need priors or parameter bounds that keep
+ * lower below upper, otherwise the sigmoid may be inverted during the analysis.
  */
 public class Sigmoid extends ActivationFunction {
 
-    public Input<Double> lowerInput = new Input<>(
+    public Input<RealParameter> lowerInput = new Input<>(
             "lower",
-            "Lower bound of the sigmoid output (minimum value). Default is 0.0.",
-            0.0, Input.Validate.OPTIONAL);
+            "Lower bound of the sigmoid output (minimum value). If estimated together with upper, "
+                    + "its prior or bounds must keep it below upper. Default is 0.0.");
 
-    public Input<Double> upperInput = new Input<>(
+    public Input<RealParameter> upperInput = new Input<>(
             "upper",
-            "Upper bound of the sigmoid output (maximum value). Default is 1.0.",
-            1.0, Input.Validate.OPTIONAL);
+            "Upper bound of the sigmoid output (maximum value). If estimated together with lower, "
+                    + "its prior or bounds must keep it above lower. Default is 1.0.");
 
-    // Parameters that can be estimated via MCMC
-    public Input<Double> shapeInput = new Input<>(
+    public Input<RealParameter> shapeInput = new Input<>(
             "shape",
             "Shape (steepness) of the sigmoid curve. Larger values produce a steeper transition. "
-                    + "Default is 1.0.",
-            1.0, Input.Validate.OPTIONAL);
+                    + "Default is 1.0.");
 
-    public Input<Double> midpointInput = new Input<>(
+    public Input<RealParameter> midpointInput = new Input<>(
         "midpoint",
         "Input value at which the sigmoid output reaches halfway between lower and upper. "
-                + "Default is 0.0.",
-        0.0, Input.Validate.OPTIONAL);
+                + "Default is 0.0.");
 
-    private double lower;
-    private double upper;
-    private double shape;
-    private double midpoint;
+    private Function lower = new RealParameter("0.0");
+    private Function upper = new RealParameter("1.0");
+    private Function shape = new RealParameter("1.0");
+    private Function midpoint = new RealParameter("0.0");
 
     @Override
     public void initAndValidate() {
-        upper = upperInput.get();
-        lower = lowerInput.get();
-        if (lower >= upper) {
+        if (lowerInput.get() != null)
+            lower = lowerInput.get();
+        if (upperInput.get() != null)
+            upper = upperInput.get();
+        if (lower.getArrayValue() >= upper.getArrayValue()) {
             throw new IllegalArgumentException(
                     String.format(
                             "Invalid sigmoid bounds: lower bound (%.3f) must be less than upper bound (%.3f).",
-                            lower, upper
+                            lower.getArrayValue(), upper.getArrayValue()
                     )
             );
         }
 
-        shape = shapeInput.get();
-        midpoint = midpointInput.get();
+        if (shapeInput.get() != null)
+            shape = shapeInput.get();
+        if (midpointInput.get() != null)
+            midpoint = midpointInput.get();
     }
 
     @Override
     public double apply(double z){
-        return lower + (upper - lower) / (1 + Math.exp(-shape * (z - midpoint)));
+        double l = lower.getArrayValue();
+        return l + (upper.getArrayValue() - l) / (1 + Math.exp(-shape.getArrayValue() * (z - midpoint.getArrayValue())));
+    }
+
+    /**
+     * Applies the sigmoid to every entry, reading the parameters once rather than once per entry.
+     */
+    @Override
+    public RealMatrix apply(RealMatrix z) {
+        double l = lower.getArrayValue();
+        double range = upper.getArrayValue() - l;
+        double s = shape.getArrayValue();
+        double m = midpoint.getArrayValue();
+
+        double[][] result = z.getData();
+        for (double[] row : result) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = l + range / (1 + Math.exp(-s * (row[j] - m)));
+            }
+        }
+        return new Array2DRowRealMatrix(result, false);
+    }
+
+    /**
+     * Applies the sigmoid to every value, reading the parameters once rather than once per value.
+     */
+    @Override
+    public void applyInPlace(double[] z) {
+        double l = lower.getArrayValue();
+        double range = upper.getArrayValue() - l;
+        double s = shape.getArrayValue();
+        double m = midpoint.getArrayValue();
+
+        for (int i = 0; i < z.length; i++) {
+            z[i] = l + range / (1 + Math.exp(-s * (z[i] - m)));
+        }
+    }
+
+    @Override
+    public double[] getParameterValues() {
+        return new double[]{
+                lower.getArrayValue(), upper.getArrayValue(), shape.getArrayValue(), midpoint.getArrayValue()
+        };
+    }
+
+    @Override
+    public double[] getActiveRange() {
+        // Within 2 / shape of the midpoint, outputs stay between 12% and 88% of the bounds range
+        double halfWidth = 2.0 / Math.abs(shape.getArrayValue());
+        double center = midpoint.getArrayValue();
+        return new double[]{center - halfWidth, center + halfWidth};
     }
 }
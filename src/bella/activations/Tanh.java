@@ -17,4 +17,10 @@ public class Tanh extends ActivationFunction {
     public double apply(double z){
         return Math.tanh(z);
     }
-}
\ No newline at end of file
+
+    @Override
+    public double[] getActiveRange() {
+        // tanh'(z) drops below 0.08 outside [-2, 2]
+        return new double[]{-2.0, 2.0};
+    }
+}
@@ -0,0 +1,146 @@
+package bella.operators;
+
+import beast.base.core.Description;
+import beast.base.core.Input;
+import beast.base.inference.Distribution;
+import beast.base.inference.Evaluator;
+import beast.base.inference.distribution.Normal;
+import beast.base.util.Randomizer;
+
+import org.apache.commons.math.distribution.NormalDistribution;
+
+@Description("Elliptical slice sampling (Murray, Adams & MacKay, 2010) over all weights of one or more BayesMLPs "
+        + "with a shared normal prior. Each move draws weights from the prior, then searches the ellipse through "
+        + "the current and the drawn weights, shrinking the search bracket until the likelihood exceeds a random "
+        + "threshold. Moves are always accepted, and no tuning is required.")
+public class EllipticalSliceOperator extends MLPWeightsOperator {
+
+    public Input<Normal> priorInput = new Input<>(
+            "prior",
+            "Normal prior placed independently on every weight. Its mean and standard deviation define the ellipse.",
+            Input.Validate.REQUIRED);
+
+    public Input<Distribution> likelihoodInput = new Input<>(
+            "likelihood",
+            "Distribution evaluated at each point of the ellipse: the posterior without the priors on the weights, "
+                    + "typically the likelihood.",
+            Input.Validate.REQUIRED);
+
+    public Input<Integer> maxEvaluationsInput = new Input<>(
+            "maxEvaluations",
+            "Maximum number of likelihood evaluations per move. If reached, the current weights are kept. "
+                    + "Default is 100.",
+            100, Input.Validate.OPTIONAL);
+
+    @Override
+    public void initAndValidate() {
+        super.initAndValidate();
+
+        if (maxEvaluationsInput.get() < 1)
+            throw new IllegalArgumentException(
+                    String.format("Invalid maxEvaluations (%d): must be at least 1.", maxEvaluationsInput.get())
+            );
+    }
+
+    @Override
+    public Distribution getEvaluatorDistribution() {
+        return likelihoodInput.get();
+    }
+
+    /**
+     * Without an evaluator, makes a single Metropolis-Hastings step to a random point of the ellipse.
+     * <p>
+     * The ellipse proposal is reversible with respect to the prior, so the Hastings ratio cancels the prior ratio
+     * and the move is accepted with probability given by the likelihood ratio.
+     */
+    @Override
+    public double proposal() {
+        double mean = getPriorMean();
+        double sigma = getPriorSigma();
+        double[] current = getWeightValues();
+        double[] proposed = pointOnEllipse(current, drawFromPrior(mean, sigma), mean, Randomizer.nextDouble() * 2 * Math.PI);
+        setWeightValues(proposed);
+
+        return logPrior(current, mean, sigma) - logPrior(proposed, mean, sigma);
+    }
+
+    @Override
+    public double proposal(Evaluator evaluator) {
+        if (evaluator == null)
+            return proposal();
+
+        double mean = getPriorMean();
+        double sigma = getPriorSigma();
+        double[] current = getWeightValues();
+        double[] nu = drawFromPrior(mean, sigma);
+        double logThreshold = likelihoodInput.get().getCurrentLogP() + Math.log(Randomizer.nextDouble());
+
+        double theta = Randomizer.nextDouble() * 2 * Math.PI;
+        double thetaMin = theta - 2 * Math.PI;
+        double thetaMax = theta;
+        for (int i = 0; i < maxEvaluationsInput.get(); i++) {
+            double[] proposed = pointOnEllipse(current, nu, mean, theta);
+
+            // The evaluator restores the state after computing the likelihood
+            setWeightValues(proposed);
+            if (evaluator.evaluate() > logThreshold) {
+                setWeightValues(proposed);
+                return Double.POSITIVE_INFINITY;
+            }
+
+            // Shrink the bracket towards the current weights (theta = 0)
+            if (theta < 0)
+                thetaMin = theta;
+            else
+                thetaMax = theta;
+            theta = thetaMin + Randomizer.nextDouble() * (thetaMax - thetaMin);
+        }
+
+        // Keep the current weights
+        setWeightValues(current);
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the mean of the prior, taken from the distribution itself so that its parametrization
+     * (e.g., precision instead of standard deviation) and offset are respected.
+     */
+    private double getPriorMean() {
+        Normal prior = priorInput.get();
+        return ((NormalDistribution) prior.getDistribution()).getMean() + prior.offsetInput.get();
+    }
+
+    private double getPriorSigma() {
+        return ((NormalDistribution) priorInput.get().getDistribution()).getStandardDeviation();
+    }
+
+    private double[] drawFromPrior(double mean, double sigma) {
+        double[] values = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            values[i] = mean + sigma * Randomizer.nextGaussian();
+        }
+        return values;
+    }
+
+    /**
+     * Returns the point at angle theta on the ellipse centered at the prior mean,
+     * passing through the current weights (theta = 0) and the prior draw nu (theta = pi / 2).
+     */
+    private static double[] pointOnEllipse(double[] current, double[] nu, double mean, double theta) {
+        double cos = Math.cos(theta);
+        double sin = Math.sin(theta);
+        double[] point = new double[current.length];
+        for (int i = 0; i < point.length; i++) {
+            point[i] = mean + (current[i] - mean) * cos + (nu[i] - mean) * sin;
+        }
+        return point;
+    }
+
+    private static double logPrior(double[] values, double mean, double sigma) {
+        double sumOfSquares = 0.0;
+        for (double value : values) {
+            sumOfSquares += (value - mean) * (value - mean);
+        }
+        return -sumOfSquares / (2 * sigma * sigma);
+    }
+}
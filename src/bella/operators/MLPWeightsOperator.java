@@ -0,0 +1,83 @@
+package bella.operators;
+
+import beast.base.core.Input;
+import beast.base.inference.Operator;
+import beast.base.inference.StateNode;
+import beast.base.inference.parameter.RealParameter;
+
+import bella.BayesMLP;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for operators that update all weights of one or more {@link BayesMLP}s jointly.
+ * <p>
+ * Weights are handled as a single flat vector, concatenating the weight parameters of each network
+ * in the order of {@link BayesMLP#getWeights()}. Parameters shared between networks appear only once.
+ */
+public abstract class MLPWeightsOperator extends Operator {
+
+    public Input<List<BayesMLP>> mlpInput = new Input<>(
+            "mlp",
+            "Networks whose weights are updated jointly.",
+            new ArrayList<>(), Input.Validate.REQUIRED);
+
+    protected List<RealParameter> weights; // Distinct weight parameters of all networks
+    protected Map<RealParameter, Integer> offsets; // Position of each weight parameter in the flat vector
+    protected int dimension; // Total number of weights
+
+    @Override
+    public void initAndValidate() {
+        // Networks may share weight parameters, which must only be updated once
+        LinkedHashSet<RealParameter> distinct = new LinkedHashSet<>();
+        for (BayesMLP mlp : mlpInput.get()) {
+            distinct.addAll(mlp.getWeights());
+        }
+        weights = new ArrayList<>(distinct);
+
+        offsets = new IdentityHashMap<>();
+        dimension = 0;
+        for (RealParameter parameter : weights) {
+            offsets.put(parameter, dimension);
+            dimension += parameter.getDimension();
+        }
+    }
+
+    /**
+     * Returns the weight parameters, which are not direct inputs of the operator but inputs of its networks.
+     */
+    @Override
+    public List<StateNode> listStateNodes() {
+        return new ArrayList<>(weights);
+    }
+
+    /**
+     * Returns the current values of all weights as a flat vector.
+     */
+    protected double[] getWeightValues() {
+        double[] values = new double[dimension];
+        int k = 0;
+        for (RealParameter parameter : weights) {
+            for (int j = 0; j < parameter.getDimension(); j++) {
+                values[k++] = parameter.getArrayValue(j);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Sets all weights from a flat vector.
+     */
+    protected void setWeightValues(double[] values) {
+        int k = 0;
+        for (RealParameter parameter : weights) {
+            for (int j = 0; j < parameter.getDimension(); j++) {
+                parameter.setValue(j, values[k++]);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package bella.operators;
+
+import beast.base.core.Description;
+import beast.base.core.Input;
+import beast.base.inference.Distribution;
+import beast.base.inference.Evaluator;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+
+import bella.BayesMLP;
+
+import java.util.Arrays;
+import java.util.List;
+
+@Description("Multiple-try Metropolis (Liu, Liang & Wong, 2000) over all weights of one or more BayesMLPs. "
+        + "Each move draws several Gaussian random-walk candidates, evaluates the networks for all of them "
+        + "in one batched forward pass, and selects one in proportion to the density of the given distribution. "
+        + "Reference points around the selected candidate are evaluated the same way to compute the acceptance ratio, "
+        + "which is valid for any distribution used to weight the candidates.")
+public class MultipleTryOperator extends MLPWeightsOperator {
+
+    public Input<Distribution> distributionInput = new Input<>(
+            "distribution",
+            "Distribution used to weight the candidates, e.g., the posterior or only the likelihood. "
+                    + "The chain targets the posterior whichever distribution is used.",
+            Input.Validate.REQUIRED);
+
+    public Input<Integer> triesInput = new Input<>(
+            "tries",
+            "Number of candidates drawn per move. Default is 5.",
+            5, Input.Validate.OPTIONAL);
+
+    public Input<Double> scaleInput = new Input<>(
+            "scale",
+            "Standard deviation of the Gaussian random walk applied to every weight. Default is 0.1.",
+            0.1, Input.Validate.OPTIONAL);
+
+    public Input<Boolean> optimiseInput = new Input<>(
+            "optimise",
+            "Whether to tune the scale to achieve a good acceptance rate. Default is true.",
+            true, Input.Validate.OPTIONAL);
+
+    private double scale;
+
+    @Override
+    public void initAndValidate() {
+        super.initAndValidate();
+
+        if (triesInput.get() < 1)
+            throw new IllegalArgumentException(
+                    String.format("Invalid tries (%d): must be at least 1.", triesInput.get())
+            );
+        if (scaleInput.get() <= 0)
+            throw new IllegalArgumentException(
+                    String.format("Invalid scale (%s): must be positive.", scaleInput.get())
+            );
+        scale = scaleInput.get();
+    }
+
+    @Override
+    public Distribution getEvaluatorDistribution() {
+        return distributionInput.get();
+    }
+
+    /**
+     * Without an evaluator, makes a plain Gaussian random-walk step, which is symmetric.
+     */
+    @Override
+    public double proposal() {
+        setWeightValues(randomWalk(getWeightValues()));
+        return 0.0;
+    }
+
+    @Override
+    public double proposal(Evaluator evaluator) {
+        if (evaluator == null)
+            return proposal();
+
+        int nTries = triesInput.get();
+        double[] current = getWeightValues();
+
+        // Draw candidates around the current weights and weight them by their density
+        double[][] candidates = new double[nTries][];
+        for (int k = 0; k < nTries; k++) {
+            candidates[k] = randomWalk(current);
+        }
+        evaluateNetworks(candidates);
+        double[] logCandidates = evaluateDensities(evaluator, candidates);
+
+        int selected = select(logCandidates);
+        if (selected < 0) {
+            setWeightValues(current);
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        // Draw reference points around the selected candidate; the current weights complete the reference set.
+        // The networks already hold the output for the current weights, so only the other reference points
+        // are batched, together with the selected candidate so that accepting it does not require another pass.
+        double[][] references = new double[nTries][];
+        double[][] batch = new double[nTries][];
+        for (int k = 0; k < nTries - 1; k++) {
+            references[k] = randomWalk(candidates[selected]);
+            batch[k] = references[k];
+        }
+        references[nTries - 1] = current;
+        batch[nTries - 1] = candidates[selected];
+        evaluateNetworks(batch);
+        double[] logReferences = evaluateDensities(evaluator, references);
+
+        setWeightValues(candidates[selected]);
+
+        // The candidates are weighted by w, the density of the distribution, which need not be the posterior.
+        // The MCMC acceptance step contributes posterior(y) / posterior(x) for the selected candidate y,
+        // so the Hastings ratio is sum_k w(y_k) / sum_k w(x_k) * w(x) / w(y), with x_k the reference points.
+        // With the posterior as w, this reduces to the ratio of Liu, Liang & Wong (2000).
+        return logSumExp(logCandidates) - logSumExp(logReferences)
+                - logCandidates[selected] + logReferences[nTries - 1];
+    }
+
+    /**
+     * Evaluates the networks for all points in one batched forward pass, so that their outputs are
+     * already available when the points are evaluated by {@link #evaluateDensities}.
+     */
+    private void evaluateNetworks(double[][] points) {
+        for (BayesMLP mlp : mlpInput.get()) {
+            List<RealParameter> mlpWeights = mlp.getWeights();
+            double[][][] mlpCandidates = new double[points.length][mlpWeights.size()][];
+            for (int k = 0; k < points.length; k++) {
+                for (int i = 0; i < mlpWeights.size(); i++) {
+                    RealParameter parameter = mlpWeights.get(i);
+                    mlpCandidates[k][i] = Arrays.copyOfRange(
+                            points[k], offsets.get(parameter), offsets.get(parameter) + parameter.getDimension()
+                    );
+                }
+            }
+            mlp.evaluateCandidates(mlpCandidates);
+        }
+    }
+
+    /**
+     * Computes the density of each point through the evaluator, which restores the state afterwards.
+     * This is a full evaluation of the distribution for each point.
+     */
+    private double[] evaluateDensities(Evaluator evaluator, double[][] points) {
+        double[] logP = new double[points.length];
+        for (int k = 0; k < points.length; k++) {
+            setWeightValues(points[k]);
+            logP[k] = evaluator.evaluate();
+        }
+        return logP;
+    }
+
+    /**
+     * Selects an index with probability proportional to the exponentiated log densities,
+     * or returns -1 if all densities are zero.
+     */
+    private static int select(double[] logP) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : logP) {
+            max = Math.max(max, value);
+        }
+        if (max == Double.NEGATIVE_INFINITY || Double.isNaN(max))
+            return -1;
+
+        double[] cumulative = new double[logP.length];
+        double total = 0.0;
+        for (int k = 0; k < logP.length; k++) {
+            total += Math.exp(logP[k] - max);
+            cumulative[k] = total;
+        }
+        double u = Randomizer.nextDouble() * total;
+        for (int k = 0; k < logP.length; k++) {
+            if (u < cumulative[k])
+                return k;
+        }
+        return logP.length - 1;
+    }
+
+    private static double logSumExp(double[] logP) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : logP) {
+            max = Math.max(max, value);
+        }
+        if (max == Double.NEGATIVE_INFINITY)
+            return max;
+
+        double sum = 0.0;
+        for (double value : logP) {
+            sum += Math.exp(value - max);
+        }
+        return max + Math.log(sum);
+    }
+
+    private double[] randomWalk(double[] values) {
+        double[] proposed = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            proposed[i] = values[i] + scale * Randomizer.nextGaussian();
+        }
+        return proposed;
+    }
+
+    @Override
+    public void optimize(double logAlpha) {
+        if (optimiseInput.get())
+            scale = Math.exp(calcDelta(logAlpha) + Math.log(scale));
+    }
+
+    @Override
+    public double getCoercableParameterValue() {
+        return scale;
+    }
+
+    @Override
+    public void setCoercableParameterValue(double value) {
+        scale = value;
+    }
+}
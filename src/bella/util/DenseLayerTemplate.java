@@ -0,0 +1,58 @@
+package bella.util;
+
+import bella.activations.ActivationFunction;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Template for architecture-specialized dense layers.
+ * <p>
+ * This class is never used directly: {@link MLPKernel} defines a hidden class from its bytecode
+ * for every layer, passing the layer shape, whether it has a bias row, and the activation function as class data.
+ * Since they are stored in static final fields, the JIT compiler treats the loop bounds and the
+ * activation function as constants, so it can fully unroll small loops and inline the activation.
+ */
+final class DenseLayerTemplate implements LayerKernel {
+
+    private static final Object[] DATA = classData();
+    private static final int N_INPUT = DATA != null ? (Integer) DATA[0] : 0;
+    private static final int N_OUTPUT = DATA != null ? (Integer) DATA[1] : 0;
+    private static final boolean BIAS = DATA != null && (Boolean) DATA[2];
+    private static final ActivationFunction ACTIVATION = DATA != null ? (ActivationFunction) DATA[3] : null;
+    private static final int OFFSET = BIAS ? 1 : 0; // Rows of the weight matrix taken by the bias
+
+    @Override
+    public double[][] forward(double[][] input, double[] weights) {
+        double[][] output = new double[input.length][N_OUTPUT];
+        for (int r = 0; r < input.length; r++) {
+            double[] x = input[r];
+            double[] y = output[r];
+            if (BIAS)
+                System.arraycopy(weights, 0, y, 0, N_OUTPUT);
+            // Accumulate one weight row per input, skipping zero inputs (e.g., inactive ReLU units)
+            for (int i = 0; i < N_INPUT; i++) {
+                double value = x[i];
+                if (value == 0.0)
+                    continue;
+                int row = (i + OFFSET) * N_OUTPUT;
+                for (int j = 0; j < N_OUTPUT; j++) {
+                    y[j] += value * weights[row + j];
+                }
+            }
+            ACTIVATION.applyInPlace(y);
+        }
+        return output;
+    }
+
+    /**
+     * Reads the class data attached to the hidden class, or returns null when the template is loaded as a regular class.
+     */
+    private static Object[] classData() {
+        try {
+            return MethodHandles.classData(MethodHandles.lookup(), ConstantDescs.DEFAULT_NAME, Object[].class);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+}
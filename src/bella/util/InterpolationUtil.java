@@ -0,0 +1,108 @@
+package bella.util;
+
+/**
+ * Utility class for interpolating values known at a subset of rows (knots) to all rows.
+ * <p>
+ * Knots are row indices in increasing order. Rows before the first knot or after the last knot
+ * take the value of the nearest knot.
+ */
+public final class InterpolationUtil {
+
+    // Prevent instantiation
+    private InterpolationUtil() {}
+
+    /**
+     * Piecewise-linear interpolation between knot values.
+     *
+     * @param knots  row indices of the knots, strictly increasing
+     * @param values values at the knots
+     * @param nRows  total number of rows
+     * @return the interpolated value of each row
+     */
+    public static double[] linear(int[] knots, double[] values, int nRows) {
+        double[] result = new double[nRows];
+        int k = 0;
+        for (int n = 0; n < nRows; n++) {
+            while (k < knots.length - 1 && knots[k + 1] <= n) {
+                k++;
+            }
+            if (n <= knots[k] || k == knots.length - 1) {
+                result[n] = values[k];
+            } else {
+                double t = (double) (n - knots[k]) / (knots[k + 1] - knots[k]);
+                result[n] = values[k] + t * (values[k + 1] - values[k]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Monotone cubic interpolation between knot values (Fritsch &amp; Carlson, 1980).
+     * <p>
+     * The interpolant is smooth and preserves the monotonicity of the knot values: it does not overshoot
+     * between knots, so interpolated values stay within the range of the two adjacent knot values.
+     *
+     * @param knots  row indices of the knots, strictly increasing
+     * @param values values at the knots
+     * @param nRows  total number of rows
+     * @return the interpolated value of each row
+     */
+    public static double[] monotone(int[] knots, double[] values, int nRows) {
+        int nKnots = knots.length;
+        if (nKnots < 3)
+            return linear(knots, values, nRows);
+
+        // Secant slopes between consecutive knots
+        double[] secants = new double[nKnots - 1];
+        for (int k = 0; k < nKnots - 1; k++) {
+            secants[k] = (values[k + 1] - values[k]) / (knots[k + 1] - knots[k]);
+        }
+
+        // Initial tangents: zero at local extrema, the mean of adjacent secants elsewhere
+        double[] tangents = new double[nKnots];
+        tangents[0] = secants[0];
+        tangents[nKnots - 1] = secants[nKnots - 2];
+        for (int k = 1; k < nKnots - 1; k++) {
+            tangents[k] = (secants[k - 1] * secants[k] <= 0.0) ? 0.0 : (secants[k - 1] + secants[k]) / 2;
+        }
+
+        // Limit tangents to keep each segment monotone
+        for (int k = 0; k < nKnots - 1; k++) {
+            if (secants[k] == 0.0) {
+                tangents[k] = 0.0;
+                tangents[k + 1] = 0.0;
+                continue;
+            }
+            double a = tangents[k] / secants[k];
+            double b = tangents[k + 1] / secants[k];
+            double norm = a * a + b * b;
+            if (norm > 9.0) {
+                double tau = 3.0 / Math.sqrt(norm);
+                tangents[k] = tau * a * secants[k];
+                tangents[k + 1] = tau * b * secants[k];
+            }
+        }
+
+        double[] result = new double[nRows];
+        int k = 0;
+        for (int n = 0; n < nRows; n++) {
+            while (k < nKnots - 1 && knots[k + 1] <= n) {
+                k++;
+            }
+            if (n <= knots[k] || k == nKnots - 1) {
+                result[n] = values[k];
+            } else {
+                // Cubic Hermite basis on the segment [knots[k], knots[k + 1]]
+                double h = knots[k + 1] - knots[k];
+                double t = (n - knots[k]) / h;
+                double t2 = t * t;
+                double t3 = t2 * t;
+                result[n] = (2 * t3 - 3 * t2 + 1) * values[k]
+                        + (t3 - 2 * t2 + t) * h * tangents[k]
+                        + (-2 * t3 + 3 * t2) * values[k + 1]
+                        + (t3 - t2) * h * tangents[k + 1];
+            }
+        }
+        return result;
+    }
+}
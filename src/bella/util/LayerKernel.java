@@ -0,0 +1,20 @@
+package bella.util;
+
+/**
+ * Forward pass through a single dense layer with bias, used by {@link MLPKernel}.
+ * <p>
+ * Implementations are generated at runtime from {@link DenseLayerTemplate},
+ * one class per layer shape and activation function.
+ */
+interface LayerKernel {
+
+    /**
+     * Performs the forward pass through the layer.
+     *
+     * @param input   Input rows of shape [nSamples × nInputs].
+     * @param weights Flattened (row-major) weight matrix of shape [(nInputs + 1) × nOutputs],
+     *                where the first row represents the bias, or [nInputs × nOutputs] for layers without bias.
+     * @return Output rows of shape [nSamples × nOutputs], after applying the activation function.
+     */
+    double[][] forward(double[][] input, double[] weights);
+}
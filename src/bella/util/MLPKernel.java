@@ -0,0 +1,115 @@
+package bella.util;
+
+import bella.activations.ActivationFunction;
+import bella.activations.Identity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forward pass through a Multi-Layer Perceptron (MLP) specialized to a fixed architecture.
+ * <p>
+ * For each layer, a hidden class is generated at runtime from {@link DenseLayerTemplate}
+ * (via {@link MethodHandles.Lookup#defineHiddenClassWithClassData}) with the layer shape and
+ * activation function as constants. This removes the loop and dispatch overhead of the generic
+ * {@link MLPUtil#forward} engine, which dominates for small networks.
+ * <p>
+ * Low-rank layers, whose weight matrix is the product of two factors, are run as two consecutive kernels:
+ * one without bias and activation for the first factor, and one with bias for the second.
+ */
+public final class MLPKernel {
+
+    private static final String TEMPLATE_RESOURCE = DenseLayerTemplate.class.getSimpleName() + ".class";
+
+    private final LayerKernel[] layers;
+
+    private MLPKernel(LayerKernel[] layers) {
+        this.layers = layers;
+    }
+
+    /**
+     * Generates a kernel for the given network architecture.
+     *
+     * @param nodes            Number of neurons in each layer, including input and output layers.
+     * @param ranks            Rank of each layer's weight matrix, or 0 for full-rank layers.
+     * @param hiddenActivation Activation function for hidden layers.
+     * @param outputActivation Activation function for the output layer.
+     * @return the specialized kernel.
+     * @throws IllegalStateException if the specialized classes cannot be generated.
+     */
+    public static MLPKernel compile(
+            List<Integer> nodes,
+            int[] ranks,
+            ActivationFunction hiddenActivation,
+            ActivationFunction outputActivation
+    ) {
+        try {
+            byte[] template = readTemplate();
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            ActivationFunction linear = new Identity();
+
+            List<LayerKernel> layers = new ArrayList<>();
+            for (int i = 0; i < nodes.size() - 1; i++) {
+                ActivationFunction activation = (i == nodes.size() - 2)
+                        ? outputActivation
+                        : hiddenActivation;
+                if (ranks[i] > 0) {
+                    layers.add(define(lookup, template, nodes.get(i), ranks[i], false, linear));
+                    layers.add(define(lookup, template, ranks[i], nodes.get(i + 1), true, activation));
+                } else {
+                    layers.add(define(lookup, template, nodes.get(i), nodes.get(i + 1), true, activation));
+                }
+            }
+            return new MLPKernel(layers.toArray(new LayerKernel[0]));
+        } catch (Throwable e) {
+            if (e instanceof VirtualMachineError)
+                throw (VirtualMachineError) e;
+            throw new IllegalStateException("Failed to generate a specialized forward kernel.", e);
+        }
+    }
+
+    private static LayerKernel define(
+            MethodHandles.Lookup lookup,
+            byte[] template,
+            int nInput,
+            int nOutput,
+            boolean bias,
+            ActivationFunction activation
+    ) throws Throwable {
+        Object[] classData = {nInput, nOutput, bias, activation};
+        MethodHandles.Lookup layerLookup = lookup.defineHiddenClassWithClassData(template, classData, true);
+        return (LayerKernel) layerLookup
+                .findConstructor(layerLookup.lookupClass(), MethodType.methodType(void.class))
+                .invoke();
+    }
+
+    private static byte[] readTemplate() throws IOException {
+        try (InputStream in = MLPKernel.class.getResourceAsStream(TEMPLATE_RESOURCE)) {
+            if (in == null)
+                throw new IOException("Class file " + TEMPLATE_RESOURCE + " not found.");
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Performs a full forward pass through the network.
+     *
+     * @param input        Input rows of shape [nSamples × nFeatures].
+     * @param weightValues Flattened (row-major) weight matrices for each layer,
+     *                     each of shape [(nInputs + 1) × nOutputs] with the first row as bias.
+     *                     Low-rank layers take two entries: [nInputs × rank] and [(rank + 1) × nOutputs],
+     *                     with the first row of the second as bias.
+     * @return Output rows of shape [nSamples × nOutputs of the last layer].
+     */
+    public double[][] forward(double[][] input, double[][] weightValues) {
+        double[][] x = input;
+        for (int i = 0; i < layers.length; i++) {
+            x = layers[i].forward(x, weightValues[i]);
+        }
+        return x;
+    }
+}
@@ -2,6 +2,10 @@ package bella.util;
 
 import bella.activations.ActivationFunction;
 
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 
@@ -9,9 +13,201 @@ import org.apache.commons.math3.linear.RealMatrix;
  * Utility class for working with Multi-Layer Perceptron (MLP) objects.
  */
 public class MLPUtil {
+    // Below this fraction of non-zero inputs, accumulating weight rows per input row beats a dense multiplication
+    static final double SPARSE_DENSITY = 0.25;
+
     // Prevent instantiation
     private MLPUtil() {}
 
+    /**
+     * Expands the rows of an ordered input matrix with lagged copies of themselves,
+     * so that a 1D causal convolution over the rows becomes a dense layer over the expanded matrix.
+     * <p>
+     * Column k × nFeatures + p of the output holds feature p at lag k × dilation, for k = 0, ..., kernelWidth - 1.
+     * Rows before the start of the input are padded by repeating the first row.
+     *
+     * @param input       Input matrix of shape [nSamples × nFeatures], with rows in order (e.g., time bins).
+     * @param kernelWidth Number of taps of the convolutional filter.
+     * @param dilation    Spacing, in rows, between consecutive taps.
+     * @return Lag-expanded matrix of shape [nSamples × (nFeatures × kernelWidth)].
+     */
+    public static RealMatrix lag_expand(RealMatrix input, int kernelWidth, int dilation) {
+        int nRows = input.getRowDimension();
+        int nCols = input.getColumnDimension();
+
+        RealMatrix expanded = MatrixUtils.createRealMatrix(nRows, nCols * kernelWidth);
+        for (int i = 0; i < nRows; i++) {
+            for (int k = 0; k < kernelWidth; k++) {
+                int source = Math.max(0, i - k * dilation);
+                for (int p = 0; p < nCols; p++) {
+                    expanded.setEntry(i, k * nCols + p, input.getEntry(source, p));
+                }
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * Computes the pre-activation values of a single MLP layer with bias.
+     * <p>
+     * The input is augmented with a bias column of ones, then multiplied
+     * by the weight matrix.
+     *
+     * @param input   Input matrix of shape [nSamples × nFeatures].
+     * @param weights Weight matrix of shape [(nFeatures + 1) × nOutputs],
+     *                where the first row represents the bias.
+     * @return Pre-activation matrix of shape [nSamples × nOutputs].
+     */
+    public static RealMatrix layer_linear(RealMatrix input, RealMatrix weights) {
+        int nRows = input.getRowDimension();
+        int nCols = input.getColumnDimension();
+
+        RealMatrix inputWithBias = MatrixUtils.createRealMatrix(nRows, nCols + 1);
+        for (int i = 0; i < nRows; i++) {
+            inputWithBias.setEntry(i, 0, 1.0);
+        }
+        inputWithBias.setSubMatrix(input.getData(), 0, 1);
+
+        return inputWithBias.multiply(weights);
+    }
+
+    /**
+     * Computes the pre-activation values of a single MLP layer with bias, given either its weight matrix
+     * or its two low-rank factors.
+     *
+     * @param input   Input matrix of shape [nSamples × nFeatures].
+     * @param factors Either the weight matrix of shape [(nFeatures + 1) × nOutputs], or the left factor
+     *                of shape [nFeatures × rank] and the right factor of shape [(rank + 1) × nOutputs],
+     *                as described in {@link #layer_linear(RealMatrix, RealMatrix, RealMatrix)}.
+     * @return Pre-activation matrix of shape [nSamples × nOutputs].
+     */
+    public static RealMatrix layer_linear(RealMatrix input, RealMatrix[] factors) {
+        return (factors.length == 1)
+                ? layer_linear(input, factors[0])
+                : layer_linear(input, factors[0], factors[1]);
+    }
+
+    /**
+     * Computes the pre-activation values of a single MLP layer with bias, whose weight matrix
+     * is factorized as the product of two thin matrices.
+     * <p>
+     * Only the [nFeatures × nOutputs] block of the weights is factorized, while each output keeps its own bias,
+     * stored as the first row of the right factor. The input is multiplied through the two factors in turn,
+     * without forming the full weight matrix, which costs O(nSamples × rank × (nFeatures + nOutputs))
+     * instead of O(nSamples × nFeatures × nOutputs).
+     *
+     * @param input Input matrix of shape [nSamples × nFeatures].
+     * @param left  Left factor of shape [nFeatures × rank].
+     * @param right Right factor of shape [(rank + 1) × nOutputs], where the first row represents the bias.
+     * @return Pre-activation matrix of shape [nSamples × nOutputs].
+     */
+    public static RealMatrix layer_linear(RealMatrix input, RealMatrix left, RealMatrix right) {
+        return layer_linear(input.multiply(left), right);
+    }
+
+    /**
+     * Computes the pre-activation values of a single MLP layer with bias, skipping zero inputs.
+     * <p>
+     * Inputs that are zero for every sample (e.g., inactive ReLU units) are dropped, together with
+     * the corresponding rows of the weight matrix, before the multiplication. If most inputs are zero,
+     * each output row is instead accumulated from the weight rows of its non-zero inputs only.
+     * The result equals {@link #layer_linear(RealMatrix, RealMatrix)}.
+     *
+     * @param input   Input matrix of shape [nSamples × nFeatures].
+     * @param weights Weight matrix of shape [(nFeatures + 1) × nOutputs],
+     *                where the first row represents the bias.
+     * @return Pre-activation matrix of shape [nSamples × nOutputs].
+     */
+    public static RealMatrix layer_linear_sparse(RealMatrix input, RealMatrix weights) {
+        return linear_sparse(input, weights, true);
+    }
+
+    /**
+     * Multiplies the input by a weight matrix, with or without a bias row, skipping zero inputs
+     * as described in {@link #layer_linear_sparse(RealMatrix, RealMatrix)}.
+     */
+    private static RealMatrix linear_sparse(RealMatrix input, RealMatrix weights, boolean bias) {
+        int nRows = input.getRowDimension();
+        int nCols = input.getColumnDimension();
+        int offset = bias ? 1 : 0; // Rows of the weight matrix taken by the bias
+        double[][] x = input.getData();
+
+        boolean[] active = new boolean[nCols];
+        int nNonZero = 0;
+        for (double[] row : x) {
+            for (int j = 0; j < nCols; j++) {
+                if (row[j] != 0.0) {
+                    active[j] = true;
+                    nNonZero++;
+                }
+            }
+        }
+
+        if (nNonZero <= SPARSE_DENSITY * nRows * nCols) {
+            int nOutputs = weights.getColumnDimension();
+            double[][] w = weights.getData();
+            double[][] output = new double[nRows][];
+            for (int r = 0; r < nRows; r++) {
+                double[] y = bias ? w[0].clone() : new double[nOutputs];
+                for (int j = 0; j < nCols; j++) {
+                    double value = x[r][j];
+                    if (value == 0.0)
+                        continue;
+                    double[] weightRow = w[j + offset];
+                    for (int k = 0; k < nOutputs; k++) {
+                        y[k] += value * weightRow[k];
+                    }
+                }
+                output[r] = y;
+            }
+            return new Array2DRowRealMatrix(output, false);
+        }
+
+        int nActive = 0;
+        for (boolean a : active) {
+            if (a) nActive++;
+        }
+
+        // The dense input is built from the copy already scanned, with the bias column if any
+        int[] activeCols = new int[nActive];
+        int[] weightRows = new int[nActive + offset]; // The bias row if any, then the rows of the active inputs
+        for (int j = 0, k = 0; j < nCols; j++) {
+            if (active[j]) {
+                activeCols[k] = j;
+                weightRows[k + offset] = j + offset;
+                k++;
+            }
+        }
+        double[][] activeInput = new double[nRows][nActive + offset];
+        for (int r = 0; r < nRows; r++) {
+            if (bias)
+                activeInput[r][0] = 1.0;
+            for (int k = 0; k < nActive; k++) {
+                activeInput[r][k + offset] = x[r][activeCols[k]];
+            }
+        }
+        RealMatrix activeWeights = (nActive == nCols)
+                ? weights
+                : weights.getSubMatrix(weightRows, IntStream.range(0, weights.getColumnDimension()).toArray());
+        return new Array2DRowRealMatrix(activeInput, false).multiply(activeWeights);
+    }
+
+    /**
+     * Computes the pre-activation values of a single MLP layer with bias, given either its weight matrix
+     * or its two low-rank factors, skipping zero inputs as in {@link #layer_linear_sparse(RealMatrix, RealMatrix)}.
+     *
+     * @param input   Input matrix of shape [nSamples × nFeatures].
+     * @param factors Either the weight matrix of shape [(nFeatures + 1) × nOutputs], or the left factor
+     *                of shape [nFeatures × rank] and the right factor of shape [(rank + 1) × nOutputs],
+     *                as described in {@link #layer_linear(RealMatrix, RealMatrix, RealMatrix)}.
+     * @return Pre-activation matrix of shape [nSamples × nOutputs].
+     */
+    public static RealMatrix layer_linear_sparse(RealMatrix input, RealMatrix[] factors) {
+        return (factors.length == 1)
+                ? linear_sparse(input, factors[0], true)
+                : layer_linear(linear_sparse(input, factors[0], false), factors[1]);
+    }
+
     /**
      * Performs a forward pass through a single MLP layer with bias.
      * <p>
@@ -25,18 +221,185 @@ public class MLPUtil {
      * @return Output matrix after applying the linear transformation and activation.
      */
     public static RealMatrix layer_forward(RealMatrix input, RealMatrix weights, ActivationFunction activation) {
-        int nRows = input.getRowDimension();
-        int nCols = input.getColumnDimension();
+        return activation.apply(layer_linear(input, weights));
+    }
 
-        RealMatrix inputWithBias = MatrixUtils.createRealMatrix(nRows, nCols + 1);
-        for (int i = 0; i < nRows; i++) {
-            inputWithBias.setEntry(i, 0, 1.0);
+    /**
+     * Performs a forward pass through a Multi-Layer Perceptron (MLP),
+     * stopping before the output activation.
+     * <p>
+     * The input layer is computed densely, while the hidden layers skip zero inputs
+     * as in {@link #layer_linear_sparse(RealMatrix, RealMatrix)}.
+     *
+     * @param input            Input matrix of shape [nSamples × nFeatures].
+     * @param weightMatrices   Array of weight matrices for each layer.
+     *                         Each matrix shape: [(nFeatures + 1) × nOutputs],
+     *                         with the first row as bias.
+     * @param hiddenActivation Activation function for hidden layers.
+     * @return Pre-activation matrix of the output layer.
+     */
+    public static RealMatrix forward_linear(
+            RealMatrix input,
+            RealMatrix[] weightMatrices,
+            ActivationFunction hiddenActivation
+    ) {
+        RealMatrix[][] layerFactors = new RealMatrix[weightMatrices.length][];
+        for (int i = 0; i < weightMatrices.length; i++) {
+            layerFactors[i] = new RealMatrix[]{weightMatrices[i]};
         }
-        inputWithBias.setSubMatrix(input.getData(), 0, 1);
+        return forward_linear(input, layerFactors, hiddenActivation);
+    }
 
-        RealMatrix z = inputWithBias.multiply(weights);
+    /**
+     * Performs a forward pass through a Multi-Layer Perceptron (MLP) with possibly factorized layers,
+     * stopping before the output activation.
+     * <p>
+     * The input layer is computed densely: its inputs are typically predictors, which are rarely zero
+     * for every sample, so scanning them for zeros would not pay off. The hidden layers skip zero inputs
+     * (e.g., inactive ReLU units) as in {@link #layer_linear_sparse(RealMatrix, RealMatrix[])}.
+     *
+     * @param input            Input matrix of shape [nSamples × nFeatures].
+     * @param layerFactors     Weight matrices for each layer: either a single matrix of shape
+     *                         [(nFeatures + 1) × nOutputs], with the first row as bias, or two low-rank factors
+     *                         of shapes [nFeatures × rank] and [(rank + 1) × nOutputs], with the first row of the
+     *                         right factor as bias.
+     * @param hiddenActivation Activation function for hidden layers.
+     * @return Pre-activation matrix of the output layer.
+     */
+    public static RealMatrix forward_linear(
+            RealMatrix input,
+            RealMatrix[][] layerFactors,
+            ActivationFunction hiddenActivation
+    ) {
+        return forward_linear_from(layer_linear(input, layerFactors[0]), layerFactors, 1, hiddenActivation);
+    }
 
-        return activation.apply(z);
+    /**
+     * Completes a forward pass from the pre-activation values of a given layer, skipping zero inputs
+     * in the remaining layers, and stopping before the output activation.
+     *
+     * @param z                Pre-activation matrix of layer {@code first - 1}.
+     * @param layerFactors     Weight matrices for each layer, as described in
+     *                         {@link #forward_linear(RealMatrix, RealMatrix[][], ActivationFunction)}.
+     * @param first            Index of the first layer to compute.
+     * @param hiddenActivation Activation function for hidden layers.
+     * @return Pre-activation matrix of the output layer.
+     */
+    private static RealMatrix forward_linear_from(
+            RealMatrix z,
+            RealMatrix[][] layerFactors,
+            int first,
+            ActivationFunction hiddenActivation
+    ) {
+        for (int i = first; i < layerFactors.length; i++) {
+            z = layer_linear_sparse(hiddenActivation.apply(z), layerFactors[i]);
+        }
+        return z;
+    }
+
+    /**
+     * Computes the fraction of samples for which each hidden unit has a non-zero activation.
+     * <p>
+     * Units with an activity of 0 (e.g., dead ReLU units) do not contribute to the network output.
+     *
+     * @param input            Input matrix of shape [nSamples × nFeatures].
+     * @param layerFactors     Weight matrices for each layer, as described in
+     *                         {@link #forward_linear(RealMatrix, RealMatrix[][], ActivationFunction)}.
+     * @param hiddenActivation Activation function for hidden layers.
+     * @return Activity of each unit of each hidden layer, indexed as [hiddenLayer][unit].
+     */
+    public static double[][] hidden_activity(
+            RealMatrix input,
+            RealMatrix[][] layerFactors,
+            ActivationFunction hiddenActivation
+    ) {
+        double[][] activity = new double[layerFactors.length - 1][];
+        RealMatrix x = input;
+
+        for (int i = 0; i < layerFactors.length - 1; i++) {
+            RealMatrix z = (i == 0) ? layer_linear(x, layerFactors[i]) : layer_linear_sparse(x, layerFactors[i]);
+            x = hiddenActivation.apply(z);
+            activity[i] = new double[x.getColumnDimension()];
+            for (int r = 0; r < x.getRowDimension(); r++) {
+                for (int j = 0; j < x.getColumnDimension(); j++) {
+                    if (x.getEntry(r, j) != 0.0)
+                        activity[i][j] += 1.0 / x.getRowDimension();
+                }
+            }
+        }
+
+        return activity;
+    }
+
+    /**
+     * Performs forward passes through a Multi-Layer Perceptron (MLP) for several candidate weight configurations
+     * sharing the same architecture, stopping before the output activation.
+     * <p>
+     * The first layer of all candidates is computed with a single multiplication of the input by the candidates'
+     * (first factor) weight matrices stacked side by side; the remaining layers are computed per candidate.
+     *
+     * @param input            Input matrix of shape [nSamples × nFeatures].
+     * @param candidates       Weight matrices of each candidate, as described in
+     *                         {@link #forward_linear(RealMatrix, RealMatrix[][], ActivationFunction)}.
+     * @param hiddenActivation Activation function for hidden layers.
+     * @return Pre-activation matrix of the output layer for each candidate.
+     */
+    public static RealMatrix[] forward_linear_batched(
+            RealMatrix input,
+            RealMatrix[][][] candidates,
+            ActivationFunction hiddenActivation
+    ) {
+        ActivationFunction[] hiddenActivations = new ActivationFunction[candidates.length];
+        Arrays.fill(hiddenActivations, hiddenActivation);
+        return forward_linear_batched(input, candidates, hiddenActivations);
+    }
+
+    /**
+     * Performs forward passes through several Multi-Layer Perceptrons (MLPs) sharing the same architecture
+     * and the same input, each with its own hidden activation function, stopping before the output activation.
+     * <p>
+     * The first layer of all networks is computed with a single multiplication, as in
+     * {@link #forward_linear_batched(RealMatrix, RealMatrix[][][], ActivationFunction)}.
+     *
+     * @param input             Input matrix of shape [nSamples × nFeatures].
+     * @param candidates        Weight matrices of each network, as described in
+     *                          {@link #forward_linear(RealMatrix, RealMatrix[][], ActivationFunction)}.
+     * @param hiddenActivations Activation function for the hidden layers of each network.
+     * @return Pre-activation matrix of the output layer for each network.
+     */
+    public static RealMatrix[] forward_linear_batched(
+            RealMatrix input,
+            RealMatrix[][][] candidates,
+            ActivationFunction[] hiddenActivations
+    ) {
+        int nCandidates = candidates.length;
+        if (nCandidates == 0)
+            return new RealMatrix[0];
+
+        int nRows = candidates[0][0][0].getRowDimension();
+        int blockSize = candidates[0][0][0].getColumnDimension();
+
+        RealMatrix stacked = MatrixUtils.createRealMatrix(nRows, nCandidates * blockSize);
+        for (int k = 0; k < nCandidates; k++) {
+            stacked.setSubMatrix(candidates[k][0][0].getData(), 0, k * blockSize);
+        }
+        // Low-rank layers keep their bias in the right factor, applied per candidate
+        boolean lowRank = candidates[0][0].length > 1;
+        RealMatrix stackedZ = lowRank ? input.multiply(stacked) : layer_linear(input, stacked);
+
+        RealMatrix[] outputs = new RealMatrix[nCandidates];
+        for (int k = 0; k < nCandidates; k++) {
+            RealMatrix[][] layerFactors = candidates[k];
+            RealMatrix z = stackedZ.getSubMatrix(
+                    0, stackedZ.getRowDimension() - 1, k * blockSize, (k + 1) * blockSize - 1
+            );
+            if (lowRank)
+                z = layer_linear(z, layerFactors[0][1]);
+
+            outputs[k] = forward_linear_from(z, layerFactors, 1, hiddenActivations[k]);
+        }
+
+        return outputs;
     }
 
     /**
@@ -56,16 +419,6 @@ public class MLPUtil {
             ActivationFunction hiddenActivation,
             ActivationFunction outputActivation
     ) {
-        RealMatrix x = input;
-
-        for (int i = 0; i < weightMatrices.length; i++) {
-            ActivationFunction activation = (i == weightMatrices.length - 1)
-                    ? outputActivation
-                    : hiddenActivation;
-
-            x = layer_forward(x, weightMatrices[i], activation);
-        }
-
-        return x;
+        return outputActivation.apply(forward_linear(input, weightMatrices, hiddenActivation));
     }
 }
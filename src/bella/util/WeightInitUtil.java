@@ -0,0 +1,149 @@
+package bella.util;
+
+import beast.base.inference.distribution.ParametricDistribution;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.util.Randomizer;
+
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Utility class for initializing the weights of Multi-Layer Perceptron (MLP) objects.
+ * <p>
+ * All random draws use the BEAST {@link Randomizer}, so initial weights are reproducible
+ * given the BEAST random seed.
+ */
+public final class WeightInitUtil {
+
+    // Prevent instantiation
+    private WeightInitUtil() {}
+
+    /**
+     * Fills a flattened weight matrix with normal draws of mean 0 and the given standard deviation,
+     * setting the bias row to 0.
+     * <p>
+     * Use sd = sqrt(2 / (nInputs + nOutputs)) for Glorot initialization,
+     * and sd = sqrt(2 / nInputs) for He initialization.
+     *
+     * @param weights flattened (row-major) weight matrix of shape [(nInputs + 1) × nOutputs] (modified in place)
+     * @param nBias   number of entries in the bias row, i.e., the number of output neurons of the layer,
+     *                or 0 for matrices without bias (e.g., the left factor of a low-rank layer)
+     * @param sd      standard deviation of the draws
+     */
+    public static void drawScaled(RealParameter weights, int nBias, double sd) {
+        for (int i = 0; i < weights.getDimension(); i++) {
+            weights.setValue(i, i < nBias ? 0.0 : sd * Randomizer.nextGaussian());
+        }
+    }
+
+    /**
+     * Fills a weight parameter with independent draws from the given distribution.
+     *
+     * @param weights      weight parameter (modified in place)
+     * @param distribution distribution to draw from, typically the prior on the weights
+     * @throws IllegalArgumentException if the distribution cannot be sampled
+     */
+    public static void drawFromDistribution(RealParameter weights, ParametricDistribution distribution) {
+        try {
+            Double[][] draws = distribution.sample(weights.getDimension());
+            for (int i = 0; i < weights.getDimension(); i++) {
+                weights.setValue(i, draws[i][0]);
+            }
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Failed to draw initial weights from the given distribution.", e);
+        }
+    }
+
+    /**
+     * Shifts the bias of every neuron whose pre-activation values all fall outside the given range,
+     * so that part of its values fall inside.
+     * <p>
+     * This revives units that would otherwise start dead (e.g., ReLU units negative for every row).
+     *
+     * @param z       pre-activation matrix of the layer, of shape [nSamples × nOutputs] (modified in place)
+     * @param weights flattened (row-major) weight matrix of the layer, with the first row as bias (modified in place)
+     * @param range   interval [lower, upper] of pre-activation values over which the activation is not saturated
+     */
+    public static void ensureActive(RealMatrix z, RealParameter weights, double[] range) {
+        for (int j = 0; j < z.getColumnDimension(); j++) {
+            double[] column = z.getColumn(j);
+            boolean active = false;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (double value : column) {
+                active |= value >= range[0] && value <= range[1];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (!active) {
+                shiftBias(z, weights, j, target(range) - (min + max) / 2);
+            }
+        }
+    }
+
+    /**
+     * Scales and shifts the weights of an output neuron so that its pre-activation values
+     * for all rows fall inside the given range.
+     *
+     * @param z       pre-activation matrix of the layer, of shape [nSamples × nOutputs] (modified in place)
+     * @param weights flattened (row-major) weight matrix of the layer, with the first row as bias (modified in place)
+     * @param range   interval [lower, upper] of pre-activation values over which the activation is not saturated
+     */
+    public static void fitToRange(RealMatrix z, RealParameter weights, double[] range) {
+        int nOutput = z.getColumnDimension();
+        for (int j = 0; j < nOutput; j++) {
+            double bias = weights.getArrayValue(j);
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (double value : z.getColumn(j)) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+
+            // Shrink the non-bias weights if the spread of values exceeds the range width
+            double width = range[1] - range[0];
+            if (max - min > width) {
+                double scale = width / (max - min);
+                for (int i = nOutput + j; i < weights.getDimension(); i += nOutput) {
+                    weights.setValue(i, weights.getArrayValue(i) * scale);
+                }
+                for (int n = 0; n < z.getRowDimension(); n++) {
+                    z.setEntry(n, j, bias + (z.getEntry(n, j) - bias) * scale);
+                }
+                min = bias + (min - bias) * scale;
+                max = bias + (max - bias) * scale;
+            }
+
+            double shift = 0.0;
+            if (Double.isFinite(range[0]) && Double.isFinite(range[1]))
+                shift = target(range) - (min + max) / 2;
+            else if (min < range[0])
+                shift = range[0] - min;
+            else if (max > range[1])
+                shift = range[1] - max;
+            shiftBias(z, weights, j, shift);
+        }
+    }
+
+    /**
+     * Returns the pre-activation value to center neurons on: the middle of a bounded range,
+     * or its finite end otherwise.
+     */
+    private static double target(double[] range) {
+        if (Double.isFinite(range[0]) && Double.isFinite(range[1]))
+            return (range[0] + range[1]) / 2;
+        if (Double.isFinite(range[0]))
+            return range[0];
+        if (Double.isFinite(range[1]))
+            return range[1];
+        return 0.0;
+    }
+
+    private static void shiftBias(RealMatrix z, RealParameter weights, int j, double shift) {
+        if (shift == 0.0)
+            return;
+        weights.setValue(j, weights.getArrayValue(j) + shift);
+        for (int n = 0; n < z.getRowDimension(); n++) {
+            z.setEntry(n, j, z.getEntry(n, j) + shift);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package bella;
+
+import beast.base.inference.parameter.RealParameter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BayesMLPPrediction.
+ */
+public class BayesMLPPredictionTest {
+
+    @Test
+    void testPredictionOnTrainingGridMatchesNetwork() {
+        RealParameter w1 = new RealParameter("0.0");
+        RealParameter w2 = new RealParameter("0.0");
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("10.0 20.0 30.0 40.0"),
+                "predictor", new RealParameter("0.5 0.1 0.9 0.3"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 3
+        );
+        setValues(w1, new double[]{0.3, -0.7, 1.1, 0.4, -0.2, 0.9, -1.3, 0.5, 0.8});
+        setValues(w2, new double[]{-0.6, 0.1, 0.2, -0.4});
+        mlp.requiresRecalculation();
+
+        BayesMLPPrediction prediction = new BayesMLPPrediction();
+        prediction.initByName(
+                "mlp", mlp,
+                "predictor", new RealParameter("10.0 20.0 30.0 40.0"),
+                "predictor", new RealParameter("0.5 0.1 0.9 0.3")
+        );
+
+        assertEquals(4, prediction.getDimension());
+        assertArrayEquals(mlp.getDoubleValues(), prediction.getDoubleValues(), 1e-12);
+
+        // Predictions follow weight changes when read
+        w2.setValue(0, 0.7);
+        mlp.requiresRecalculation();
+        assertArrayEquals(mlp.getDoubleValues(), prediction.getDoubleValues(), 1e-12);
+    }
+
+    @Test
+    void testPredictionUsesGridValuesAsGiven() {
+        RealParameter w = new RealParameter("0.0");
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("2.0 4.0 6.0"),
+                "weights", w,
+                "outputActivation", new bella.activations.Identity()
+        );
+        setValues(w, new double[]{1.0, 2.0}); // y = 1 + 2 × x
+
+        BayesMLPPrediction prediction = new BayesMLPPrediction();
+        prediction.initByName("mlp", mlp, "predictor", new RealParameter("0.0 10.0"));
+
+        assertArrayEquals(new double[]{1.0, 21.0}, prediction.getDoubleValues(), 1e-12);
+
+        BayesMLPPrediction invalid = new BayesMLPPrediction();
+        assertThrows(IllegalArgumentException.class, () -> invalid.initByName(
+                "mlp", mlp,
+                "predictor", new RealParameter("0.0 10.0"),
+                "predictor", new RealParameter("0.0 10.0")
+        ));
+    }
+
+    private static void setValues(RealParameter parameter, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            parameter.setValue(i, values[i]);
+        }
+    }
+}
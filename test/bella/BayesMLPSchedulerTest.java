@@ -0,0 +1,156 @@
+package bella;
+
+import beast.base.inference.parameter.RealParameter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BayesMLPScheduler.
+ */
+public class BayesMLPSchedulerTest {
+
+    private static BayesMLP createMLP(BayesMLPScheduler scheduler, int hiddenNodes, List<RealParameter> weights) {
+        RealParameter w1 = new RealParameter("0.3");
+        RealParameter w2 = new RealParameter("-0.2");
+        weights.add(w1);
+        weights.add(w2);
+
+        BayesMLP mlp = new BayesMLP();
+        if (scheduler != null) {
+            mlp.initByName(
+                    "predictor", new RealParameter("1.0 2.0 3.0 4.0 5.0"),
+                    "weights", w1,
+                    "weights", w2,
+                    "nodes", hiddenNodes,
+                    "scheduler", scheduler
+            );
+        } else {
+            mlp.initByName(
+                    "predictor", new RealParameter("1.0 2.0 3.0 4.0 5.0"),
+                    "weights", w1,
+                    "weights", w2,
+                    "nodes", hiddenNodes
+            );
+        }
+        return mlp;
+    }
+
+    @Test
+    void testFlushEvaluatesAllDirtyNetworks() {
+        BayesMLPScheduler scheduler = new BayesMLPScheduler();
+        scheduler.initByName("threads", 3);
+
+        // Two architectures, several instances each, plus unscheduled references
+        List<BayesMLP> scheduled = new ArrayList<>();
+        List<BayesMLP> references = new ArrayList<>();
+        List<RealParameter> scheduledWeights = new ArrayList<>();
+        List<RealParameter> referenceWeights = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            int hiddenNodes = (i % 2 == 0) ? 3 : 5;
+            scheduled.add(createMLP(scheduler, hiddenNodes, scheduledWeights));
+            references.add(createMLP(null, hiddenNodes, referenceWeights));
+        }
+
+        for (int i = 0; i < scheduledWeights.size(); i++) {
+            double value = 0.1 * i - 0.5;
+            scheduledWeights.get(i).setValue(i % scheduledWeights.get(i).getDimension(), value);
+            referenceWeights.get(i).setValue(i % referenceWeights.get(i).getDimension(), value);
+        }
+        for (BayesMLP mlp : scheduled) {
+            mlp.requiresRecalculation();
+        }
+        for (BayesMLP mlp : references) {
+            mlp.requiresRecalculation();
+        }
+        for (BayesMLP mlp : scheduled) {
+            assertFalse(mlp.snapshot.matchesNetwork(mlp.weights, mlp.hiddenActivation),
+                    "Forward pass should be deferred until the first read");
+        }
+
+        // Reading one network evaluates all of them
+        scheduled.get(0).getArrayValue(0);
+        for (BayesMLP mlp : scheduled) {
+            assertTrue(mlp.snapshot.matchesNetwork(mlp.weights, mlp.hiddenActivation));
+        }
+        for (int i = 0; i < scheduled.size(); i++) {
+            assertArrayEquals(references.get(i).getDoubleValues(), scheduled.get(i).getDoubleValues(), 1e-12);
+        }
+    }
+
+    @Test
+    void testFusedBatchMatchesIndividualNetworks() {
+        // Default number of threads: networks sharing their predictors are fused however many cores there are
+        BayesMLPScheduler scheduler = new BayesMLPScheduler();
+        scheduler.initByName();
+
+        // Same architecture, one network over different predictors that cannot be fused
+        List<BayesMLP> scheduled = new ArrayList<>();
+        List<BayesMLP> references = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String predictor = (i == 3) ? "5.0 4.0 1.0 2.0 3.0" : "1.0 2.0 3.0 4.0 5.0";
+            for (List<BayesMLP> list : List.of(scheduled, references)) {
+                RealParameter w1 = new RealParameter("0.0");
+                RealParameter w2 = new RealParameter("0.0");
+                BayesMLP mlp = new BayesMLP();
+                if (list == scheduled) {
+                    mlp.initByName(
+                            "predictor", new RealParameter(predictor), "weights", w1, "weights", w2, "nodes", 4,
+                            "scheduler", scheduler
+                    );
+                } else {
+                    mlp.initByName("predictor", new RealParameter(predictor), "weights", w1, "weights", w2, "nodes", 4);
+                }
+                for (int j = 0; j < w1.getDimension(); j++) {
+                    w1.setValue(j, Math.sin(i + 0.5 * j));
+                }
+                for (int j = 0; j < w2.getDimension(); j++) {
+                    w2.setValue(j, Math.cos(i - 0.3 * j));
+                }
+                list.add(mlp);
+            }
+        }
+
+        List<List<BayesMLP>> groups = scheduler.groupByFusion(scheduled);
+        assertEquals(2, groups.size());
+        assertEquals(List.of(scheduled.get(0), scheduled.get(1), scheduled.get(2), scheduled.get(4)), groups.get(0));
+        assertEquals(List.of(scheduled.get(3)), groups.get(1));
+
+        for (BayesMLP mlp : scheduled) {
+            mlp.requiresRecalculation();
+        }
+        for (BayesMLP mlp : references) {
+            mlp.requiresRecalculation();
+        }
+        scheduled.get(0).getArrayValue(0);
+        for (int i = 0; i < scheduled.size(); i++) {
+            BayesMLP mlp = scheduled.get(i);
+            assertTrue(mlp.snapshot.matchesNetwork(mlp.weights, mlp.hiddenActivation));
+            assertArrayEquals(references.get(i).getDoubleValues(), mlp.getDoubleValues(), 1e-12);
+        }
+        scheduler.close();
+    }
+
+    @Test
+    void testCloseShutsDownPool() {
+        BayesMLPScheduler scheduler = new BayesMLPScheduler();
+        scheduler.initByName("threads", 2);
+        List<RealParameter> weights = new ArrayList<>();
+        BayesMLP first = createMLP(scheduler, 3, weights);
+        BayesMLP second = createMLP(scheduler, 5, weights);
+
+        scheduler.close();
+
+        // Networks are still evaluated, on the calling thread
+        weights.get(0).setValue(0, 0.9);
+        weights.get(2).setValue(0, -0.4);
+        first.requiresRecalculation();
+        second.requiresRecalculation();
+        first.getArrayValue(0);
+        assertTrue(second.snapshot.matchesNetwork(second.weights, second.hiddenActivation));
+    }
+}
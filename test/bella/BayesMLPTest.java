@@ -0,0 +1,532 @@
+package bella;
+
+import beast.base.inference.parameter.RealParameter;
+
+import bella.activations.Identity;
+import bella.activations.Sigmoid;
+import bella.util.InterpolationUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BayesMLP.
+ */
+public class BayesMLPTest {
+
+    @Test
+    void testConcurrentReadsWhileWeightsChange() throws Exception {
+        double[] x = {1.0, 2.0, 3.0, 4.0, 5.0};
+        RealParameter w1 = new RealParameter("1.0");
+        RealParameter w2 = new RealParameter("1.0");
+
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0 4.0 5.0"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 2,
+                "hiddenActivation", new Identity(),
+                "outputActivation", new Identity(),
+                "normalize", false
+        );
+
+        // With zero biases and identity activations the network is linear through the origin,
+        // so every consistent output vector satisfies output[n] = c * x[n] for a single c.
+        w1.setValue(0, 0.0);
+        w1.setValue(1, 0.0);
+        w2.setValue(0, 0.0);
+        mlp.requiresRecalculation();
+
+        int nReaders = 8;
+        AtomicBoolean done = new AtomicBoolean(false);
+        ExecutorService pool = Executors.newFixedThreadPool(nReaders);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < nReaders; t++) {
+            readers.add(pool.submit(() -> {
+                while (!done.get()) {
+                    double[] output = mlp.getDoubleValues();
+                    double c = output[0] / x[0];
+                    for (int n = 1; n < x.length; n++) {
+                        assertEquals(c * x[n], output[n], 1e-9,
+                                "Output vector mixes values computed from different weights");
+                    }
+                    assertFalse(Double.isNaN(mlp.getArrayValue(x.length - 1)));
+                }
+            }));
+        }
+
+        // Non-bias weights: W1 rows 1 (indices 2, 3) and W2 rows 1..2 (indices 1, 2)
+        for (int k = 0; k < 20000; k++) {
+            w1.setValue(2 + k % 2, (double) (k % 7));
+            w2.setValue(1 + k % 2, (double) (k % 5));
+            mlp.requiresRecalculation();
+        }
+        done.set(true);
+        for (Future<?> reader : readers) {
+            reader.get();
+        }
+        pool.shutdown();
+
+        double c = w1.getArrayValue(2) * w2.getArrayValue(1) + w1.getArrayValue(3) * w2.getArrayValue(2);
+        for (int n = 0; n < x.length; n++) {
+            assertEquals(c * x[n], mlp.getArrayValue(n), 1e-9);
+        }
+    }
+
+    @Test
+    void testReadsFollowRecalculationAndRestore() {
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.3");
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 2
+        );
+        double[] stored = mlp.getDoubleValues();
+        double[] storedPreActivation = mlp.snapshot.preActivation;
+        mlp.store();
+
+        // Reads only check the version, so changes are picked up once the network is marked dirty
+        w2.setValue(0, 0.8);
+        assertArrayEquals(stored, mlp.getDoubleValues(), 0.0);
+        mlp.requiresRecalculation();
+        double[] proposed = mlp.getDoubleValues();
+        assertFalse(java.util.Arrays.equals(stored, proposed), "Output should follow the new weights");
+
+        // Rejection restores the weights and the stored snapshot, without a forward pass
+        w2.setValue(0, -0.3);
+        mlp.restore();
+        assertArrayEquals(stored, mlp.getDoubleValues(), 0.0);
+        assertSame(storedPreActivation, mlp.snapshot.preActivation, "Stored snapshot should be reused");
+    }
+
+    @Test
+    void testCompiledKernelMatchesGenericForward() {
+        double[] values = {0.3, -0.7, 1.1, 0.4, -0.2, 0.9, -1.3, 0.5, 0.8, -0.6, 0.1, 0.2, -0.4};
+        BayesMLP generic = new BayesMLP();
+        BayesMLP compiled = new BayesMLP();
+        for (BayesMLP mlp : new BayesMLP[]{generic, compiled}) {
+            RealParameter w1 = new RealParameter("0.0");
+            RealParameter w2 = new RealParameter("0.0");
+            mlp.initByName(
+                    "predictor", new RealParameter("1.0 2.0 3.0 4.0"),
+                    "predictor", new RealParameter("0.5 0.1 0.9 0.3"),
+                    "weights", w1,
+                    "weights", w2,
+                    "nodes", 3,
+                    "compile", mlp == compiled
+            );
+            for (int j = 0; j < w1.getDimension(); j++) {
+                w1.setValue(j, values[j]);
+            }
+            for (int j = 0; j < w2.getDimension(); j++) {
+                w2.setValue(j, values[j + 1]);
+            }
+            mlp.requiresRecalculation();
+        }
+
+        assertNull(generic.kernel);
+        assertNotNull(compiled.kernel, "Kernel generation should not fall back to the generic forward pass");
+        assertArrayEquals(generic.getDoubleValues(), compiled.getDoubleValues(), 1e-12);
+    }
+
+    @Test
+    void testOutputActivationChangeReusesPreActivations() {
+        RealParameter shape = new RealParameter("1.0");
+        RealParameter upper = new RealParameter("2.0");
+        Sigmoid sigmoid = new Sigmoid();
+        sigmoid.initByName("upper", upper, "shape", shape);
+
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.3");
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 2,
+                "outputActivation", sigmoid
+        );
+        double[] preActivation = mlp.snapshot.preActivation;
+
+        shape.setValue(0, 3.0);
+        upper.setValue(0, 5.0);
+        mlp.requiresRecalculation();
+
+        assertSame(preActivation, mlp.snapshot.preActivation, "Pre-activations should be reused");
+        for (int n = 0; n < preActivation.length; n++) {
+            double expected = 5.0 / (1 + Math.exp(-3.0 * preActivation[n]));
+            assertEquals(expected, mlp.getArrayValue(n), 1e-12);
+        }
+
+        w2.setValue(0, 0.1);
+        mlp.requiresRecalculation();
+        double output = mlp.getArrayValue(0);
+        assertEquals(5.0 / (1 + Math.exp(-3.0 * mlp.snapshot.preActivation[0])), output, 1e-12);
+        assertFalse(preActivation == mlp.snapshot.preActivation, "Weight changes should trigger a forward pass");
+    }
+
+    @Test
+    void testHeInitializationKeepsOutputsUnsaturated() {
+        Sigmoid sigmoid = new Sigmoid();
+        sigmoid.initByName("upper", new RealParameter("4.0"), "shape", new RealParameter("2.0"));
+
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0 4.0 5.0 6.0"),
+                "predictor", new RealParameter("3.0 1.0 4.0 1.0 5.0 9.0"),
+                "weights", new RealParameter("50.0"),
+                "weights", new RealParameter("50.0"),
+                "nodes", 8,
+                "outputActivation", sigmoid,
+                "init", BayesMLP.WeightInit.he
+        );
+        mlp.initStateNodes();
+
+        // Non-saturated range is midpoint ± 2 / shape, i.e. outputs within 12%-88% of [0, 4]
+        double lower = 4.0 / (1 + Math.exp(2.0));
+        double upper = 4.0 / (1 + Math.exp(-2.0));
+        for (double value : mlp.getDoubleValues()) {
+            assertTrue(value >= lower - 1e-9 && value <= upper + 1e-9, "Initial output saturated: " + value);
+        }
+    }
+
+    @Test
+    void testConvolutionalInputLayer() {
+        RealParameter conv = new RealParameter("0.0");
+        RealParameter w1 = new RealParameter("0.0");
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 4.0 8.0"),
+                "weights", w1,
+                "convWeights", conv,
+                "kernelWidth", 2,
+                "convChannels", 1,
+                "hiddenActivation", new Identity(),
+                "outputActivation", new Identity(),
+                "normalize", false
+        );
+        assertEquals(3, conv.getDimension());
+        assertEquals(2, w1.getDimension());
+
+        // Channel value: x[n] - x[n-1], then output: 1 + 2 * channel
+        conv.setValue(1, 1.0);
+        conv.setValue(2, -1.0);
+        w1.setValue(0, 1.0);
+        w1.setValue(1, 2.0);
+        mlp.requiresRecalculation();
+        assertArrayEquals(new double[]{1.0, 3.0, 5.0, 9.0}, mlp.getDoubleValues(), 1e-12);
+    }
+
+    @Test
+    void testLowRankLayerMatchesImpliedFullLayer() {
+        double[] left = {0.2, -0.4};                        // [2 × 1]
+        double[] right = {0.6, -0.2, 0.3, 0.9, 0.4, -0.8};  // [(1 + 1) × 3], bias row first
+        double[] output = {0.1, 0.5, -0.7, 0.3};            // [(3 + 1) × 1]
+
+        // Full-rank network holding the bias row, then the product of the two factors
+        double[] full = new double[9];
+        for (int j = 0; j < 3; j++) {
+            full[j] = right[j];
+            for (int i = 0; i < 2; i++) {
+                full[(i + 1) * 3 + j] = left[i] * right[3 + j];
+            }
+        }
+
+        RealParameter leftParameter = new RealParameter("0.0");
+        RealParameter rightParameter = new RealParameter("0.0");
+        RealParameter outputParameter = new RealParameter("0.0");
+        BayesMLP lowRank = new BayesMLP();
+        lowRank.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0 4.0"),
+                "predictor", new RealParameter("0.5 0.1 0.9 0.3"),
+                "weights", leftParameter,
+                "weights", rightParameter,
+                "weights", outputParameter,
+                "nodes", 3,
+                "ranks", 1,
+                "ranks", 0
+        );
+        assertEquals(2, leftParameter.getDimension());
+        assertEquals(6, rightParameter.getDimension());
+        setValues(leftParameter, left);
+        setValues(rightParameter, right);
+        setValues(outputParameter, output);
+        lowRank.requiresRecalculation();
+
+        RealParameter fullParameter = new RealParameter("0.0");
+        RealParameter fullOutputParameter = new RealParameter("0.0");
+        BayesMLP fullRank = new BayesMLP();
+        fullRank.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0 4.0"),
+                "predictor", new RealParameter("0.5 0.1 0.9 0.3"),
+                "weights", fullParameter,
+                "weights", fullOutputParameter,
+                "nodes", 3
+        );
+        setValues(fullParameter, full);
+        setValues(fullOutputParameter, output);
+        fullRank.requiresRecalculation();
+
+        assertArrayEquals(fullRank.getDoubleValues(), lowRank.getDoubleValues(), 1e-12);
+
+        // The logger outputs the implied full weights, under the same headers
+        ByteArrayOutputStream lowRankHeader = new ByteArrayOutputStream();
+        ByteArrayOutputStream fullRankHeader = new ByteArrayOutputStream();
+        lowRank.init(new PrintStream(lowRankHeader));
+        fullRank.init(new PrintStream(fullRankHeader));
+        assertEquals(fullRankHeader.toString(), lowRankHeader.toString());
+
+        ByteArrayOutputStream lowRankLog = new ByteArrayOutputStream();
+        ByteArrayOutputStream fullRankLog = new ByteArrayOutputStream();
+        lowRank.log(0, new PrintStream(lowRankLog));
+        fullRank.log(0, new PrintStream(fullRankLog));
+        String[] lowRankValues = lowRankLog.toString().trim().split("\t");
+        String[] fullRankValues = fullRankLog.toString().trim().split("\t");
+        assertEquals(fullRankValues.length, lowRankValues.length);
+        for (int i = 0; i < fullRankValues.length; i++) {
+            assertEquals(Double.parseDouble(fullRankValues[i]), Double.parseDouble(lowRankValues[i]), 1e-12);
+        }
+    }
+
+    @Test
+    void testEvaluateCandidatesMatchesSettingWeights() {
+        RealParameter w1 = new RealParameter("0.0");
+        RealParameter w2 = new RealParameter("0.0");
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0 4.0"),
+                "predictor", new RealParameter("0.5 0.1 0.9 0.3"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 3
+        );
+
+        double[][][] candidates = new double[4][2][];
+        for (int k = 0; k < candidates.length; k++) {
+            candidates[k][0] = new double[w1.getDimension()];
+            candidates[k][1] = new double[w2.getDimension()];
+            for (int j = 0; j < candidates[k][0].length; j++) {
+                candidates[k][0][j] = Math.sin(k + 0.7 * j);
+            }
+            for (int j = 0; j < candidates[k][1].length; j++) {
+                candidates[k][1][j] = Math.cos(k - 0.3 * j);
+            }
+        }
+        double[] before = mlp.getDoubleValues();
+        double[][] outputs = mlp.evaluateCandidates(candidates);
+        assertArrayEquals(before, mlp.getDoubleValues(), 0.0, "Weights should not be modified");
+
+        for (int k = 0; k < candidates.length; k++) {
+            setValues(w1, candidates[k][0]);
+            setValues(w2, candidates[k][1]);
+            mlp.requiresRecalculation();
+            double[] output = mlp.getDoubleValues();
+            assertSame(mlp.candidateSnapshots.get(k).output, mlp.snapshot.output, "Candidate result should be reused");
+
+            BayesMLP reference = new BayesMLP();
+            RealParameter r1 = new RealParameter("0.0");
+            RealParameter r2 = new RealParameter("0.0");
+            reference.initByName(
+                    "predictor", new RealParameter("1.0 2.0 3.0 4.0"),
+                    "predictor", new RealParameter("0.5 0.1 0.9 0.3"),
+                    "weights", r1,
+                    "weights", r2,
+                    "nodes", 3
+            );
+            setValues(r1, candidates[k][0]);
+            setValues(r2, candidates[k][1]);
+            reference.requiresRecalculation();
+            assertArrayEquals(reference.getDoubleValues(), outputs[k], 1e-12);
+            assertArrayEquals(outputs[k], output, 0.0);
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                () -> mlp.evaluateCandidates(new double[][][]{{candidates[0][0]}}));
+
+        assertEquals(0, mlp.evaluateCandidates(new double[0][][]).length);
+        assertTrue(mlp.candidateSnapshots.isEmpty(), "Results of the previous call should be discarded");
+    }
+
+    @Test
+    void testKnotsInterpolateBetweenEvaluatedRows() {
+        double[] values = {0.3, -0.7, 1.1, 0.4, -0.2, 0.9, -1.3, 0.5, 0.8, -0.6, 0.1, 0.2, -0.4};
+        String time = "0.0 1.0 2.0 3.0 4.0 5.0 6.0";
+        String trait = "0.5 0.4 0.3 0.3 0.2 0.4 0.6";
+        int[] knots = {0, 3, 6};
+
+        BayesMLP full = new BayesMLP();
+        BayesMLP linear = new BayesMLP();
+        BayesMLP monotone = new BayesMLP();
+        for (BayesMLP mlp : new BayesMLP[]{full, linear, monotone}) {
+            RealParameter w1 = new RealParameter("0.0");
+            RealParameter w2 = new RealParameter("0.0");
+            if (mlp == full) {
+                mlp.initByName(
+                        "predictor", new RealParameter(time),
+                        "predictor", new RealParameter(trait),
+                        "weights", w1,
+                        "weights", w2,
+                        "nodes", 3
+                );
+            } else {
+                mlp.initByName(
+                        "predictor", new RealParameter(time),
+                        "predictor", new RealParameter(trait),
+                        "weights", w1,
+                        "weights", w2,
+                        "nodes", 3,
+                        "knots", 6,
+                        "knots", 0,
+                        "knots", 3,
+                        "interpolation", (mlp == monotone) ? BayesMLP.Interpolation.monotone : BayesMLP.Interpolation.linear
+                );
+            }
+            setValues(w1, java.util.Arrays.copyOf(values, w1.getDimension()));
+            setValues(w2, java.util.Arrays.copyOfRange(values, 1, 1 + w2.getDimension()));
+            mlp.requiresRecalculation();
+        }
+
+        double[] fullOutput = full.getDoubleValues();
+        double[] knotValues = new double[knots.length];
+        for (int k = 0; k < knots.length; k++) {
+            knotValues[k] = fullOutput[knots[k]];
+        }
+        assertEquals(7, linear.getDimension());
+        assertEquals(3, linear.snapshot.preActivation.length, "Only the knots should be evaluated");
+        assertArrayEquals(InterpolationUtil.linear(knots, knotValues, 7), linear.getDoubleValues(), 1e-12);
+        assertArrayEquals(InterpolationUtil.monotone(knots, knotValues, 7), monotone.getDoubleValues(), 1e-12);
+    }
+
+    @Test
+    void testUniquePredictorsMatchesFullEvaluation() {
+        double[] values = {0.3, -0.7, 1.1, 0.4, -0.2, 0.9, -1.3, 0.5, 0.8, -0.6, 0.1, 0.2, -0.4};
+        BayesMLP full = new BayesMLP();
+        BayesMLP unique = new BayesMLP();
+        for (BayesMLP mlp : new BayesMLP[]{full, unique}) {
+            RealParameter w1 = new RealParameter("0.0");
+            RealParameter w2 = new RealParameter("0.0");
+            mlp.initByName(
+                    "predictor", new RealParameter("1.0 1.0 2.0 2.0 3.0 1.0"),
+                    "predictor", new RealParameter("0.5 0.5 0.1 0.1 0.9 0.5"),
+                    "weights", w1,
+                    "weights", w2,
+                    "nodes", 3,
+                    "uniquePredictors", mlp == unique
+            );
+            setValues(w1, java.util.Arrays.copyOf(values, w1.getDimension()));
+            setValues(w2, java.util.Arrays.copyOfRange(values, 1, 1 + w2.getDimension()));
+            mlp.requiresRecalculation();
+        }
+
+        assertEquals(3, unique.snapshot.preActivation.length, "Only distinct rows should be evaluated");
+        assertArrayEquals(full.getDoubleValues(), unique.getDoubleValues(), 1e-12);
+    }
+
+    @Test
+    void testLogActivity() {
+        RealParameter w1 = new RealParameter("0.0");
+        RealParameter w2 = new RealParameter("0.0");
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0 4.0"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 2,
+                "normalize", false,
+                "logActivity", true
+        );
+        mlp.setID("mlp");
+        // Unit 0 is active for inputs above 2.5, unit 1 is never active
+        setValues(w1, new double[]{-2.5, -1.0, 1.0, 0.0});
+        setValues(w2, new double[]{0.1, 0.5, -0.3});
+        mlp.requiresRecalculation();
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        mlp.init(new PrintStream(header));
+        mlp.log(0, new PrintStream(log));
+        String[] headers = header.toString().trim().split("\t");
+        String[] values = log.toString().trim().split("\t");
+
+        assertEquals(headers.length, values.length);
+        assertEquals("mlpActivity.Layer1[0]", headers[headers.length - 2]);
+        assertEquals("mlpActivity.Layer1[1]", headers[headers.length - 1]);
+        assertEquals(0.5, Double.parseDouble(values[values.length - 2]), 1e-12);
+        assertEquals(0.0, Double.parseDouble(values[values.length - 1]), 1e-12);
+    }
+
+    @Test
+    void testNormalizationRescalesPredictorParameters() {
+        RealParameter raw = new RealParameter("3.0 8.0 13.0");
+        BayesMLP normalized = new BayesMLP();
+        BayesMLP unnormalized = new BayesMLP();
+        RealParameter w1 = new RealParameter("0.0");
+        RealParameter w2 = new RealParameter("0.0");
+        normalized.initByName("predictor", raw, "weights", w1, "nodes", 2, "weights", w2);
+        RealParameter v1 = new RealParameter("0.0");
+        RealParameter v2 = new RealParameter("0.0");
+        unnormalized.initByName(
+                "predictor", new RealParameter("3.0 8.0 13.0"), "weights", v1, "nodes", 2, "weights", v2,
+                "normalize", false
+        );
+        for (RealParameter[] pair : new RealParameter[][]{{w1, v1}, {w2, v2}}) {
+            for (int j = 0; j < pair[0].getDimension(); j++) {
+                pair[0].setValue(j, 0.4 * j - 0.5);
+                pair[1].setValue(j, 0.4 * j - 0.5);
+            }
+        }
+        normalized.requiresRecalculation();
+        unnormalized.requiresRecalculation();
+
+        // The network inputs are built before the predictor parameters are normalized in place
+        assertArrayEquals(unnormalized.getDoubleValues(), normalized.getDoubleValues(), 1e-12);
+        assertArrayEquals(new double[]{0.0, 0.5, 1.0}, raw.getDoubleValues(), 1e-12);
+    }
+
+    @Test
+    void testInitialiserRedrawsWeightsOnEachAttempt() {
+        RealParameter w1 = new RealParameter("0.0");
+        RealParameter w2 = new RealParameter("0.0");
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0 4.0"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 3,
+                "init", BayesMLP.WeightInit.glorot
+        );
+        assertArrayEquals(new double[w1.getDimension()], w1.getDoubleValues(), 0.0,
+                "Weights should not be drawn during initAndValidate");
+
+        List<beast.base.inference.StateNode> stateNodes = new ArrayList<>();
+        mlp.getInitialisedStateNodes(stateNodes);
+        assertEquals(List.of(w1, w2), stateNodes);
+
+        mlp.initStateNodes();
+        double[] first = w1.getDoubleValues();
+        double[] firstOutput = mlp.getDoubleValues();
+        mlp.initStateNodes();
+        assertFalse(java.util.Arrays.equals(first, w1.getDoubleValues()), "Each attempt should draw new weights");
+        assertFalse(java.util.Arrays.equals(firstOutput, mlp.getDoubleValues()), "Output should follow the new weights");
+    }
+
+    private static void setValues(RealParameter parameter, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            parameter.setValue(i, values[i]);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package bella.activations;
 
+import beast.base.inference.parameter.RealParameter;
+
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.junit.jupiter.api.Test;
@@ -32,8 +34,8 @@ public class SigmoidTest {
     void testSigmoidCustomBounds() {
         Sigmoid sigmoid = new Sigmoid();
         sigmoid.initByName(
-                "lower", 1.0,
-                "upper", 3.0
+                "lower", new RealParameter("1.0"),
+                "upper", new RealParameter("3.0")
         );
 
         double[][] data = {{0.0, 1.0, 10.0}};
@@ -55,8 +57,8 @@ public class SigmoidTest {
         Sigmoid sigmoid = new Sigmoid();
         sigmoid.initByName(
                 // Default: lower=0.0, upper=1.0
-                "shape", 10.0,
-                "midpoint", 1.0
+                "shape", new RealParameter("10.0"),
+                "midpoint", new RealParameter("1.0")
         );
 
         double[][] data = {{0.0, 1.0, 2.0}};
@@ -72,4 +74,30 @@ public class SigmoidTest {
         // Above midpoint ~ upper bound
         assertTrue(output.getEntry(0, 2) > 1 - 0.01, "Value above midpoint should be near upper bound");
     }
+
+    @Test
+    void testBatchedApplyMatchesElementWise() {
+        RealParameter upper = new RealParameter("3.0");
+        Sigmoid sigmoid = new Sigmoid();
+        sigmoid.initByName(
+                "lower", new RealParameter("1.0"),
+                "upper", upper,
+                "shape", new RealParameter("2.0"),
+                "midpoint", new RealParameter("0.5")
+        );
+
+        double[] values = {-2.0, 0.0, 0.5, 1.0, 4.0};
+        for (int attempt = 0; attempt < 2; attempt++) {
+            RealMatrix output = sigmoid.apply(MatrixUtils.createRealMatrix(new double[][]{values}));
+            double[] inPlace = values.clone();
+            sigmoid.applyInPlace(inPlace);
+            for (int j = 0; j < values.length; j++) {
+                assertEquals(sigmoid.apply(values[j]), output.getEntry(0, j), 1e-15);
+                assertEquals(sigmoid.apply(values[j]), inPlace[j], 1e-15);
+            }
+
+            // Parameter changes are picked up by the next call
+            upper.setValue(5.0);
+        }
+    }
 }
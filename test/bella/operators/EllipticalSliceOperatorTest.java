@@ -0,0 +1,275 @@
+package bella.operators;
+
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.MCMC;
+import beast.base.inference.State;
+import beast.base.inference.distribution.Normal;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.parameter.RealParameter;
+
+import bella.BayesMLP;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for EllipticalSliceOperator.
+ */
+public class EllipticalSliceOperatorTest {
+
+    @Test
+    void testProposalWithoutEvaluatorCancelsPrior() {
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.5");
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 2
+        );
+
+        Normal prior = new Normal();
+        prior.initByName("mean", new RealParameter("0.0"), "sigma", new RealParameter("2.0"));
+
+        WeightsLikelihood likelihood = new WeightsLikelihood(List.of(w1, w2), values -> 0.0);
+
+        EllipticalSliceOperator operator = new EllipticalSliceOperator();
+        operator.initByName("mlp", mlp, "prior", prior, "likelihood", likelihood, "weight", 1.0);
+
+        double[] before = concat(w1.getDoubleValues(), w2.getDoubleValues());
+        double logHastingsRatio = operator.proposal();
+        double[] after = concat(w1.getDoubleValues(), w2.getDoubleValues());
+
+        assertEquals((sumOfSquares(after) - sumOfSquares(before)) / (2 * 4.0), logHastingsRatio, 1e-9);
+        assertFalse(java.util.Arrays.equals(before, after), "Weights should move along the ellipse");
+    }
+
+    @Test
+    void testSharedWeightsAreUpdatedOnce() {
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.5");
+        BayesMLP mlp = createMLP(w1, w2);
+        Normal prior = new Normal();
+        prior.initByName("mean", new RealParameter("0.0"), "sigma", new RealParameter("2.0"));
+
+        // The same network twice, as with networks sharing all their weights
+        EllipticalSliceOperator operator = new EllipticalSliceOperator();
+        operator.initByName(
+                "mlp", mlp, "mlp", mlp, "prior", prior,
+                "likelihood", new WeightsLikelihood(List.of(w1, w2), values -> 0.0), "weight", 1.0
+        );
+        assertEquals(List.of(w1, w2), operator.listStateNodes());
+
+        for (int move = 0; move < 10; move++) {
+            double[] before = concat(w1.getDoubleValues(), w2.getDoubleValues());
+            double logHastingsRatio = operator.proposal();
+            double[] after = concat(w1.getDoubleValues(), w2.getDoubleValues());
+
+            assertEquals((sumOfSquares(after) - sumOfSquares(before)) / (2 * 4.0), logHastingsRatio, 1e-9);
+        }
+    }
+
+    @Test
+    void testSliceSamplingStaysOnEllipseAboveThreshold() {
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.5");
+        BayesMLP mlp = createMLP(w1, w2);
+        Normal prior = new Normal();
+        prior.initByName("mean", new RealParameter("1.0"), "sigma", new RealParameter("2.0"));
+
+        // Likelihood pulling the weights away from the prior mean
+        WeightsLikelihood likelihood = new WeightsLikelihood(
+                List.of(w1, w2), values -> -java.util.Arrays.stream(values).map(v -> (v - 3.0) * (v - 3.0)).sum()
+        );
+        EllipticalSliceOperator operator = new EllipticalSliceOperator();
+        operator.initByName("mlp", mlp, "prior", prior, "likelihood", likelihood, "weight", 1.0);
+
+        for (int move = 0; move < 20; move++) {
+            double[] current = likelihood.getValues();
+            likelihood.calculateLogP();
+            List<double[]> points = new ArrayList<>();
+            List<Double> logLikelihoods = new ArrayList<>();
+            double logHastingsRatio = operator.proposal(() -> {
+                // Like the MCMC evaluator: compute the likelihood of the proposed state, then restore it
+                double[] proposed = likelihood.getValues();
+                points.add(proposed);
+                logLikelihoods.add(likelihood.logDensity(proposed));
+                setValues(List.of(w1, w2), current);
+                return logLikelihoods.get(logLikelihoods.size() - 1);
+            });
+            double[] accepted = likelihood.getValues();
+
+            assertEquals(Double.POSITIVE_INFINITY, logHastingsRatio);
+            assertFalse(points.isEmpty());
+            assertTrue(points.size() <= 100);
+            if (java.util.Arrays.equals(current, accepted))
+                continue;
+
+            // The accepted point is the last evaluated one, and the only one above the threshold
+            assertArrayEquals(points.get(points.size() - 1), accepted, 0.0);
+            double acceptedLogLikelihood = logLikelihoods.get(logLikelihoods.size() - 1);
+            for (int k = 0; k < points.size() - 1; k++) {
+                assertTrue(logLikelihoods.get(k) <= acceptedLogLikelihood,
+                        "Rejected points should lie below the threshold");
+            }
+
+            // All points lie on one ellipse around the prior mean through the current weights:
+            // p - mean = (x - mean) cos(theta) + (nu - mean) sin(theta), i.e. in the plane spanned by
+            // the current weights and any other point, relative to the mean
+            for (double[] point : points) {
+                assertInPlane(current, points.get(0), point, 1.0);
+            }
+        }
+    }
+
+    @Test
+    void testSliceSamplingKeepsWeightsAfterMaxEvaluations() {
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.5");
+        BayesMLP mlp = createMLP(w1, w2);
+        Normal prior = new Normal();
+        prior.initByName("mean", new RealParameter("0.0"), "sigma", new RealParameter("1.0"));
+
+        WeightsLikelihood likelihood = new WeightsLikelihood(List.of(w1, w2), values -> 0.0);
+        EllipticalSliceOperator operator = new EllipticalSliceOperator();
+        operator.initByName(
+                "mlp", mlp, "prior", prior, "likelihood", likelihood, "maxEvaluations", 5, "weight", 1.0
+        );
+
+        double[] current = likelihood.getValues();
+        int[] evaluations = {0};
+        double logHastingsRatio = operator.proposal(() -> {
+            evaluations[0]++;
+            setValues(List.of(w1, w2), current);
+            return Double.NEGATIVE_INFINITY;
+        });
+
+        assertEquals(5, evaluations[0]);
+        assertEquals(Double.POSITIVE_INFINITY, logHastingsRatio);
+        assertArrayEquals(current, likelihood.getValues(), 0.0);
+    }
+
+    @Test
+    void testPrecisionParametrizedPrior() {
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.5");
+        BayesMLP mlp = createMLP(w1, w2);
+
+        // Precision 0.25, i.e. standard deviation 2
+        Normal prior = new Normal();
+        prior.initByName("mean", new RealParameter("0.0"), "sigma", new RealParameter("0.25"), "tau", true);
+
+        EllipticalSliceOperator operator = new EllipticalSliceOperator();
+        operator.initByName(
+                "mlp", mlp, "prior", prior, "likelihood", new WeightsLikelihood(List.of(w1, w2), values -> 0.0),
+                "weight", 1.0
+        );
+
+        double[] before = concat(w1.getDoubleValues(), w2.getDoubleValues());
+        double logHastingsRatio = operator.proposal();
+        double[] after = concat(w1.getDoubleValues(), w2.getDoubleValues());
+
+        assertEquals((sumOfSquares(after) - sumOfSquares(before)) / (2 * 4.0), logHastingsRatio, 1e-9);
+    }
+
+    @Test
+    void testRunsInMCMC() throws Exception {
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.5");
+        BayesMLP mlp = createMLP(w1, w2);
+        Normal prior = new Normal();
+        prior.initByName("mean", new RealParameter("0.0"), "sigma", new RealParameter("1.0"));
+        Normal outputDistribution = new Normal();
+        outputDistribution.initByName("mean", new RealParameter("0.7"), "sigma", new RealParameter("0.1"));
+
+        Prior w1Prior = new Prior();
+        w1Prior.initByName("x", w1, "distr", prior);
+        Prior w2Prior = new Prior();
+        w2Prior.initByName("x", w2, "distr", prior);
+        Prior likelihood = new Prior();
+        likelihood.initByName("x", mlp, "distr", outputDistribution);
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", w1Prior, "distribution", w2Prior, "distribution", likelihood);
+
+        // The weights are only reachable through the network, so the operator must list them itself
+        EllipticalSliceOperator operator = new EllipticalSliceOperator();
+        operator.initByName("mlp", mlp, "prior", prior, "likelihood", likelihood, "weight", 1.0);
+        assertEquals(List.of(w1, w2), operator.listStateNodes());
+
+        State state = new State();
+        state.initByName("stateNode", w1, "stateNode", w2);
+        state.initialise();
+        MCMC mcmc = new MCMC();
+        mcmc.initByName("chainLength", 200L, "state", state, "distribution", posterior, "operator", operator);
+        double[] before = concat(w1.getDoubleValues(), w2.getDoubleValues());
+        mcmc.run();
+        double[] after = concat(w1.getDoubleValues(), w2.getDoubleValues());
+
+        assertFalse(java.util.Arrays.equals(before, after), "Weights should be updated");
+        assertTrue(Double.isFinite(posterior.calculateLogP()));
+    }
+
+    private static BayesMLP createMLP(RealParameter w1, RealParameter w2) {
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 2
+        );
+        return mlp;
+    }
+
+    /**
+     * Asserts that point - mean lies in the plane spanned by a - mean and b - mean.
+     */
+    private static void assertInPlane(double[] a, double[] b, double[] point, double mean) {
+        int n = a.length;
+        double aa = 0, ab = 0, bb = 0, ap = 0, bp = 0;
+        for (int i = 0; i < n; i++) {
+            double x = a[i] - mean, y = b[i] - mean, p = point[i] - mean;
+            aa += x * x;
+            ab += x * y;
+            bb += y * y;
+            ap += x * p;
+            bp += y * p;
+        }
+        // Least-squares coefficients of point - mean on (a - mean, b - mean)
+        double det = aa * bb - ab * ab;
+        double alpha = (ap * bb - bp * ab) / det;
+        double beta = (bp * aa - ap * ab) / det;
+        for (int i = 0; i < n; i++) {
+            double fitted = mean + alpha * (a[i] - mean) + beta * (b[i] - mean);
+            assertEquals(point[i], fitted, 1e-9, "Point should lie on the ellipse");
+        }
+    }
+
+    private static void setValues(List<RealParameter> parameters, double[] values) {
+        int k = 0;
+        for (RealParameter parameter : parameters) {
+            for (int j = 0; j < parameter.getDimension(); j++) {
+                parameter.setValue(j, values[k++]);
+            }
+        }
+    }
+
+    private static double[] concat(double[] a, double[] b) {
+        double[] result = new double[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static double sumOfSquares(double[] values) {
+        double sum = 0.0;
+        for (double value : values) {
+            sum += value * value;
+        }
+        return sum;
+    }
+}
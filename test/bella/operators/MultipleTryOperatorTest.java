@@ -0,0 +1,161 @@
+package bella.operators;
+
+import beast.base.core.Function;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.Evaluator;
+import beast.base.inference.MCMC;
+import beast.base.inference.State;
+import beast.base.inference.distribution.Normal;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.parameter.RealParameter;
+
+import bella.BayesMLP;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for MultipleTryOperator.
+ */
+public class MultipleTryOperatorTest {
+
+    @Test
+    void testHastingsRatioOfSelectedCandidate() {
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.5");
+        BayesMLP mlp = createMLP(w1, w2);
+        WeightsLikelihood distribution = new WeightsLikelihood(
+                List.of(w1, w2), values -> -Arrays.stream(values).map(v -> (v - 1.0) * (v - 1.0)).sum()
+        );
+
+        int nTries = 4;
+        MultipleTryOperator operator = new MultipleTryOperator();
+        operator.initByName(
+                "mlp", mlp, "distribution", distribution, "tries", nTries, "scale", 0.5, "weight", 1.0
+        );
+
+        for (int move = 0; move < 10; move++) {
+            double[] current = distribution.getValues();
+            List<double[]> points = new ArrayList<>();
+            double logHastingsRatio = operator.proposal(recordingEvaluator(distribution, List.of(w1, w2), points));
+            double[] selected = distribution.getValues();
+
+            // Candidates, then reference points around the selected candidate completed by the current weights
+            assertEquals(2 * nTries, points.size());
+            List<double[]> candidates = points.subList(0, nTries);
+            List<double[]> references = points.subList(nTries, 2 * nTries);
+            assertArrayEquals(current, references.get(nTries - 1), 0.0);
+            assertTrue(candidates.stream().anyMatch(candidate -> Arrays.equals(candidate, selected)),
+                    "The new weights should be one of the candidates");
+
+            double expected = logSumExp(candidates, distribution) - logSumExp(references, distribution)
+                    - distribution.logDensity(selected) + distribution.logDensity(current);
+            assertEquals(expected, logHastingsRatio, 1e-12);
+        }
+    }
+
+    @Test
+    void testSingleTryIsMetropolisHastings() {
+        RealParameter w1 = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.5");
+        BayesMLP mlp = createMLP(w1, w2);
+        WeightsLikelihood distribution = new WeightsLikelihood(
+                List.of(w1, w2), values -> -Arrays.stream(values).map(v -> v * v).sum()
+        );
+
+        MultipleTryOperator operator = new MultipleTryOperator();
+        operator.initByName("mlp", mlp, "distribution", distribution, "tries", 1, "weight", 1.0);
+
+        for (int move = 0; move < 10; move++) {
+            double[] current = distribution.getValues();
+            List<double[]> points = new ArrayList<>();
+            double logHastingsRatio = operator.proposal(recordingEvaluator(distribution, List.of(w1, w2), points));
+
+            // A symmetric random-walk proposal: the acceptance ratio is left to the posterior ratio
+            assertEquals(0.0, logHastingsRatio, 1e-12);
+            assertEquals(2, points.size());
+            assertArrayEquals(points.get(0), distribution.getValues(), 0.0);
+            assertArrayEquals(current, points.get(1), 0.0);
+        }
+    }
+
+    @Test
+    void testRunsInMCMCWithSharedWeights() throws Exception {
+        // Two networks sharing their first layer
+        RealParameter shared = new RealParameter("0.5");
+        RealParameter w2 = new RealParameter("-0.5");
+        RealParameter w3 = new RealParameter("0.2");
+        BayesMLP first = createMLP(shared, w2);
+        BayesMLP second = createMLP(shared, w3);
+        Normal prior = new Normal();
+        prior.initByName("mean", new RealParameter("0.0"), "sigma", new RealParameter("1.0"));
+        Normal outputDistribution = new Normal();
+        outputDistribution.initByName("mean", new RealParameter("0.3"), "sigma", new RealParameter("0.1"));
+
+        List<Object> components = new ArrayList<>();
+        for (Function x : List.of(shared, w2, w3, first, second)) {
+            Prior component = new Prior();
+            component.initByName("x", x, "distr", (x instanceof BayesMLP) ? outputDistribution : prior);
+            components.add("distribution");
+            components.add(component);
+        }
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName(components.toArray());
+
+        MultipleTryOperator operator = new MultipleTryOperator();
+        operator.initByName("mlp", first, "mlp", second, "distribution", posterior, "weight", 1.0);
+        assertEquals(List.of(shared, w2, w3), operator.listStateNodes(), "Shared weights should be listed once");
+
+        State state = new State();
+        state.initByName("stateNode", shared, "stateNode", w2, "stateNode", w3);
+        state.initialise();
+        MCMC mcmc = new MCMC();
+        mcmc.initByName("chainLength", 200L, "state", state, "distribution", posterior, "operator", operator);
+        double[] before = first.getDoubleValues();
+        mcmc.run();
+
+        assertFalse(Arrays.equals(before, first.getDoubleValues()), "Weights should be updated");
+        assertTrue(Double.isFinite(posterior.calculateLogP()));
+    }
+
+    /**
+     * Returns an evaluator that records the weights it is called with and computes the density
+     * of the distribution, restoring the weights afterwards like the MCMC evaluator.
+     */
+    private static Evaluator recordingEvaluator(
+            WeightsLikelihood distribution, List<RealParameter> weights, List<double[]> points) {
+        double[] current = distribution.getValues();
+        return () -> {
+            double[] values = distribution.getValues();
+            points.add(values);
+            for (int i = 0, k = 0; i < weights.size(); i++) {
+                for (int j = 0; j < weights.get(i).getDimension(); j++) {
+                    weights.get(i).setValue(j, current[k++]);
+                }
+            }
+            return distribution.logDensity(values);
+        };
+    }
+
+    private static double logSumExp(List<double[]> points, WeightsLikelihood distribution) {
+        double max = points.stream().mapToDouble(distribution::logDensity).max().orElseThrow();
+        double sum = points.stream().mapToDouble(point -> Math.exp(distribution.logDensity(point) - max)).sum();
+        return max + Math.log(sum);
+    }
+
+    private static BayesMLP createMLP(RealParameter w1, RealParameter w2) {
+        BayesMLP mlp = new BayesMLP();
+        mlp.initByName(
+                "predictor", new RealParameter("1.0 2.0 3.0"),
+                "weights", w1,
+                "weights", w2,
+                "nodes", 2
+        );
+        return mlp;
+    }
+}
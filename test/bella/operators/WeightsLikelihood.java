@@ -0,0 +1,62 @@
+package bella.operators;
+
+import beast.base.inference.Distribution;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Distribution over a set of weight parameters with a given log density, for testing weight operators.
+ */
+class WeightsLikelihood extends Distribution {
+
+    private final List<RealParameter> weights;
+    private final ToDoubleFunction<double[]> logDensity;
+
+    WeightsLikelihood(List<RealParameter> weights, ToDoubleFunction<double[]> logDensity) {
+        this.weights = weights;
+        this.logDensity = logDensity;
+        calculateLogP();
+    }
+
+    /**
+     * Returns the current values of all weights as a flat vector.
+     */
+    double[] getValues() {
+        return weights.stream().flatMapToDouble(w -> java.util.Arrays.stream(w.getDoubleValues())).toArray();
+    }
+
+    /**
+     * Returns the log density at the given weights.
+     */
+    double logDensity(double[] values) {
+        return logDensity.applyAsDouble(values);
+    }
+
+    @Override
+    public double calculateLogP() {
+        logP = logDensity(getValues());
+        return logP;
+    }
+
+    @Override
+    public void initAndValidate() {
+    }
+
+    @Override
+    public List<String> getArguments() {
+        return List.of();
+    }
+
+    @Override
+    public List<String> getConditions() {
+        return List.of();
+    }
+
+    @Override
+    public void sample(State state, Random random) {
+    }
+}
@@ -0,0 +1,44 @@
+package bella.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InterpolationUtilTest {
+
+    @Test
+    void testLinear() {
+        int[] knots = {1, 3, 7};
+        double[] values = {2.0, 4.0, 0.0};
+
+        double[] result = InterpolationUtil.linear(knots, values, 9);
+
+        // Constant before the first and after the last knot
+        assertArrayEquals(new double[]{2.0, 2.0, 3.0, 4.0, 3.0, 2.0, 1.0, 0.0, 0.0}, result, 1e-12);
+    }
+
+    @Test
+    void testMonotonePreservesShape() {
+        int[] knots = {0, 2, 3, 8, 10};
+        double[] values = {0.0, 0.1, 0.9, 1.0, 1.0};
+
+        double[] result = InterpolationUtil.monotone(knots, values, 11);
+
+        for (int k = 0; k < knots.length; k++) {
+            assertEquals(values[k], result[knots[k]], 1e-12, "Interpolant should pass through the knots");
+        }
+        for (int n = 1; n < result.length; n++) {
+            assertTrue(result[n] >= result[n - 1] - 1e-12, "Interpolant should be non-decreasing");
+        }
+        for (int n = 8; n <= 10; n++) {
+            assertEquals(1.0, result[n], 1e-12, "Interpolant should not overshoot a flat segment");
+        }
+    }
+
+    @Test
+    void testMonotoneSingleKnot() {
+        double[] result = InterpolationUtil.monotone(new int[]{2}, new double[]{0.4}, 4);
+
+        assertArrayEquals(new double[]{0.4, 0.4, 0.4, 0.4}, result, 1e-12);
+    }
+}
@@ -0,0 +1,96 @@
+package bella.util;
+
+import bella.activations.Identity;
+import bella.activations.ReLU;
+import bella.activations.Sigmoid;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MLPKernelTest {
+
+    @Test
+    void testKernelMatchesGenericForward() {
+        List<Integer> nodes = List.of(3, 4, 2, 1);
+        ReLU relu = new ReLU();
+        Sigmoid sigmoid = new Sigmoid();
+        sigmoid.initAndValidate();
+
+        Random random = new Random(42);
+        double[][] input = new double[5][3];
+        for (double[] row : input) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = random.nextDouble();
+            }
+        }
+
+        double[][] weightValues = new double[nodes.size() - 1][];
+        RealMatrix[] weightMatrices = new RealMatrix[nodes.size() - 1];
+        for (int i = 0; i < weightValues.length; i++) {
+            int nInput = nodes.get(i) + 1;
+            int nOutput = nodes.get(i + 1);
+            weightValues[i] = new double[nInput * nOutput];
+            weightMatrices[i] = MatrixUtils.createRealMatrix(nInput, nOutput);
+            for (int j = 0; j < weightValues[i].length; j++) {
+                weightValues[i][j] = random.nextGaussian();
+                weightMatrices[i].setEntry(j / nOutput, j % nOutput, weightValues[i][j]);
+            }
+        }
+
+        MLPKernel kernel = MLPKernel.compile(nodes, new int[nodes.size() - 1], relu, sigmoid);
+        double[][] output = kernel.forward(input, weightValues);
+        RealMatrix expected = MLPUtil.forward(MatrixUtils.createRealMatrix(input), weightMatrices, relu, sigmoid);
+
+        for (int i = 0; i < input.length; i++) {
+            assertArrayEquals(expected.getRow(i), output[i], 1e-12);
+        }
+    }
+
+    @Test
+    void testLowRankKernelMatchesGenericForward() {
+        // One hidden layer of 4 units with a rank-2 input layer
+        List<Integer> nodes = List.of(3, 4, 1);
+        int[] ranks = {2, 0};
+        ReLU relu = new ReLU();
+        Identity identity = new Identity();
+
+        Random random = new Random(7);
+        double[][] input = new double[6][3];
+        for (double[] row : input) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = random.nextDouble();
+            }
+        }
+
+        // Left factor without bias, right factor with the bias row
+        int[][] shapes = {{3, 2}, {3, 4}, {5, 1}};
+        double[][] weightValues = new double[shapes.length][];
+        RealMatrix[] factors = new RealMatrix[shapes.length];
+        for (int i = 0; i < shapes.length; i++) {
+            weightValues[i] = new double[shapes[i][0] * shapes[i][1]];
+            factors[i] = MatrixUtils.createRealMatrix(shapes[i][0], shapes[i][1]);
+            for (int j = 0; j < weightValues[i].length; j++) {
+                weightValues[i][j] = random.nextGaussian();
+                factors[i].setEntry(j / shapes[i][1], j % shapes[i][1], weightValues[i][j]);
+            }
+        }
+
+        MLPKernel kernel = MLPKernel.compile(nodes, ranks, relu, identity);
+        double[][] output = kernel.forward(input, weightValues);
+        RealMatrix expected = MLPUtil.forward_linear(
+                MatrixUtils.createRealMatrix(input),
+                new RealMatrix[][]{{factors[0], factors[1]}, {factors[2]}},
+                relu
+        );
+
+        for (int i = 0; i < input.length; i++) {
+            assertArrayEquals(expected.getRow(i), output[i], 1e-12);
+        }
+    }
+}
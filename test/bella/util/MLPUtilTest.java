@@ -1,6 +1,7 @@
 package bella.util;
 
 import bella.activations.Identity;
+import bella.activations.ReLU;
 
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -47,4 +48,160 @@ class MLPUtilTest {
             assertArrayEquals(expected[i], output.getRow(i), 1e-9);
         }
     }
+
+    @Test
+    void testLagExpand() {
+        // 5 ordered rows, 1 feature
+        RealMatrix input = MatrixUtils.createRealMatrix(new double[][]{{1.0}, {2.0}, {3.0}, {4.0}, {5.0}});
+
+        RealMatrix expanded = MLPUtil.lag_expand(input, 3, 2);
+
+        // Columns: lag 0, lag 2, lag 4 (rows before the start repeat the first row)
+        double[][] expected = {
+                {1.0, 1.0, 1.0},
+                {2.0, 1.0, 1.0},
+                {3.0, 1.0, 1.0},
+                {4.0, 2.0, 1.0},
+                {5.0, 3.0, 1.0},
+        };
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], expanded.getRow(i), 1e-12);
+        }
+    }
+
+    @Test
+    void testLagExpandedDenseLayerIsCausalConvolution() {
+        // 4 ordered rows, 2 features
+        RealMatrix input = MatrixUtils.createRealMatrix(new double[][]{{1.0, 0.5}, {2.0, 0.0}, {3.0, -1.0}, {4.0, 2.0}});
+
+        // Kernel width 2, one channel: bias, then (x0, x1) at lag 0, then (x0, x1) at lag 1
+        RealMatrix weights = MatrixUtils.createRealMatrix(new double[][]{{0.1}, {1.0}, {2.0}, {-1.0}, {0.5}});
+
+        // As in BayesMLP, the convolutional layer is a dense layer over the lag-expanded input
+        RealMatrix output = MLPUtil.layer_forward(MLPUtil.lag_expand(input, 2, 1), weights, new Identity());
+
+        for (int i = 0; i < 4; i++) {
+            int lagged = Math.max(0, i - 1);
+            double expected = 0.1
+                    + 1.0 * input.getEntry(i, 0) + 2.0 * input.getEntry(i, 1)
+                    - 1.0 * input.getEntry(lagged, 0) + 0.5 * input.getEntry(lagged, 1);
+            assertEquals(expected, output.getEntry(i, 0), 1e-12);
+        }
+    }
+
+    @Test
+    void testForwardLinearBatchedMatchesPerCandidate() {
+        RealMatrix input = MatrixUtils.createRealMatrix(new double[][]{{1.0, 0.5}, {2.0, 0.0}, {3.0, -1.0}});
+        ReLU relu = new ReLU();
+
+        RealMatrix[][][] candidates = new RealMatrix[3][][];
+        for (int k = 0; k < candidates.length; k++) {
+            double shift = 0.3 * k;
+            RealMatrix hidden = MatrixUtils.createRealMatrix(
+                    new double[][]{{0.1 - shift, 0.2}, {0.5, -0.4 + shift}, {-0.3, 0.8}}
+            );
+            RealMatrix output = MatrixUtils.createRealMatrix(new double[][]{{0.2}, {1.0 + shift}, {-0.5}});
+            candidates[k] = (k == 2)
+                    // Low-rank first layer: factors of shapes [2 × 1] and [(1 + 1) × 2]
+                    ? new RealMatrix[][]{
+                            {MatrixUtils.createRealMatrix(new double[][]{{0.4}, {-0.2}}),
+                                    MatrixUtils.createRealMatrix(new double[][]{{0.1, 0.3}, {1.5, -0.5}})},
+                            {output}}
+                    : new RealMatrix[][]{{hidden}, {output}};
+        }
+
+        // Candidates with a low-rank first layer cannot be stacked with full-rank ones
+        RealMatrix[][][] fullRank = {candidates[0], candidates[1]};
+        RealMatrix[] batched = MLPUtil.forward_linear_batched(input, fullRank, relu);
+        for (int k = 0; k < fullRank.length; k++) {
+            RealMatrix expected = MLPUtil.forward_linear(input, fullRank[k], relu);
+            assertArrayEquals(expected.getColumn(0), batched[k].getColumn(0), 1e-12);
+        }
+
+        RealMatrix[][][] lowRank = {candidates[2], candidates[2]};
+        batched = MLPUtil.forward_linear_batched(input, lowRank, relu);
+        RealMatrix expected = MLPUtil.forward_linear(input, candidates[2], relu);
+        assertArrayEquals(expected.getColumn(0), batched[1].getColumn(0), 1e-12);
+
+        assertEquals(0, MLPUtil.forward_linear_batched(input, new RealMatrix[0][][], relu).length);
+    }
+
+    @Test
+    void testLowRankLayerKeepsFullBias() {
+        RealMatrix input = MatrixUtils.createRealMatrix(new double[][]{{1.0, 0.0, 2.0}, {0.0, 0.0, -1.0}});
+        RealMatrix left = MatrixUtils.createRealMatrix(new double[][]{{0.5}, {-1.0}, {2.0}});
+        RealMatrix right = MatrixUtils.createRealMatrix(new double[][]{{0.3, -0.7}, {1.0, 0.5}});
+
+        // Full weights: the bias row of the right factor, then the product of the factors
+        RealMatrix full = MatrixUtils.createRealMatrix(4, 2);
+        full.setRow(0, right.getRow(0));
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 2; j++) {
+                full.setEntry(i + 1, j, left.getEntry(i, 0) * right.getEntry(1, j));
+            }
+        }
+
+        RealMatrix expected = MLPUtil.layer_linear(input, full);
+        RealMatrix output = MLPUtil.layer_linear(input, left, right);
+        RealMatrix sparse = MLPUtil.layer_linear_sparse(input, new RealMatrix[]{left, right});
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals(expected.getRow(i), output.getRow(i), 1e-12);
+            assertArrayEquals(expected.getRow(i), sparse.getRow(i), 1e-12);
+        }
+    }
+
+    @Test
+    void testLayerLinearSparseMatchesDense() {
+        RealMatrix weights = MatrixUtils.createRealMatrix(new double[][]{
+                {0.5, -0.5},
+                {1.0, 2.0},
+                {-3.0, 0.5},
+                {0.2, 0.7},
+                {4.0, -1.0},
+        });
+        double[][][] inputs = {
+                // Dense, no zeros
+                {{1.0, 2.0, 3.0, 4.0}, {0.5, -1.0, 2.0, 1.0}},
+                // Inactive units (columns 1 and 3 are zero in every row)
+                {{1.0, 0.0, 3.0, 0.0}, {0.5, 0.0, 2.0, 0.0}},
+                // Mostly zero, triggering row-wise accumulation
+                {{0.0, 0.0, 3.0, 0.0}, {0.0, 0.0, 0.0, 0.0}, {0.0, 1.5, 0.0, 0.0}},
+                // All zero
+                {{0.0, 0.0, 0.0, 0.0}},
+        };
+
+        for (double[][] data : inputs) {
+            RealMatrix input = MatrixUtils.createRealMatrix(data);
+            RealMatrix expected = MLPUtil.layer_linear(input, weights);
+            RealMatrix output = MLPUtil.layer_linear_sparse(input, weights);
+            for (int i = 0; i < data.length; i++) {
+                assertArrayEquals(expected.getRow(i), output.getRow(i), 1e-12);
+            }
+
+            // Low-rank factors, whose left factor has no bias row
+            RealMatrix left = MatrixUtils.createRealMatrix(new double[][]{{0.3}, {-1.0}, {0.5}, {2.0}});
+            RealMatrix right = MatrixUtils.createRealMatrix(new double[][]{{0.1, -0.2}, {1.5, 0.5}});
+            expected = MLPUtil.layer_linear(input, left, right);
+            output = MLPUtil.layer_linear_sparse(input, new RealMatrix[]{left, right});
+            for (int i = 0; i < data.length; i++) {
+                assertArrayEquals(expected.getRow(i), output.getRow(i), 1e-12);
+            }
+            assertArrayEquals(data, input.getData(), "The input should not be modified");
+        }
+    }
+
+    @Test
+    void testHiddenActivity() {
+        RealMatrix input = MatrixUtils.createRealMatrix(new double[][]{{1.0}, {2.0}, {-1.0}, {-2.0}});
+        // Unit 0 is active for positive inputs, unit 1 for negative inputs, unit 2 never
+        RealMatrix hidden = MatrixUtils.createRealMatrix(new double[][]{{0.0, 0.0, -1.0}, {1.0, -1.0, 0.0}});
+        RealMatrix output = MatrixUtils.createRealMatrix(new double[][]{{0.0}, {1.0}, {1.0}, {1.0}});
+
+        double[][] activity = MLPUtil.hidden_activity(
+                input, new RealMatrix[][]{{hidden}, {output}}, new ReLU()
+        );
+
+        assertEquals(1, activity.length);
+        assertArrayEquals(new double[]{0.5, 0.5, 0.0}, activity[0], 1e-12);
+    }
 }
@@ -0,0 +1,55 @@
+package bella.util;
+
+import beast.base.inference.parameter.RealParameter;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeightInitUtilTest {
+
+    @Test
+    void testDrawScaledZeroesBias() {
+        RealParameter weights = new RealParameter("1.0 1.0 1.0 1.0 1.0 1.0");
+        WeightInitUtil.drawScaled(weights, 2, 0.5);
+
+        assertEquals(0.0, weights.getArrayValue(0));
+        assertEquals(0.0, weights.getArrayValue(1));
+        for (int i = 2; i < weights.getDimension(); i++) {
+            assertNotEquals(1.0, weights.getArrayValue(i));
+        }
+    }
+
+    @Test
+    void testEnsureActiveRevivesDeadUnit() {
+        // Two units: the first is negative for every row (dead ReLU), the second is already active
+        RealParameter weights = new RealParameter("-3.0 0.0 1.0 1.0");
+        RealMatrix z = MatrixUtils.createRealMatrix(new double[][]{{-2.0, 1.0}, {-1.0, 2.0}});
+
+        WeightInitUtil.ensureActive(z, weights, new double[]{0.0, Double.POSITIVE_INFINITY});
+
+        assertEquals(-1.5, weights.getArrayValue(0), 1e-12);
+        assertEquals(0.0, weights.getArrayValue(1), 1e-12);
+        assertArrayEquals(new double[]{-0.5, 0.5}, z.getColumn(0), 1e-12);
+        assertArrayEquals(new double[]{1.0, 2.0}, z.getColumn(1), 1e-12);
+    }
+
+    @Test
+    void testFitToRange() {
+        // Single input with weight 10 and bias 5, evaluated at x = 0, 1, 2
+        RealParameter weights = new RealParameter("5.0 10.0");
+        RealMatrix z = MatrixUtils.createRealMatrix(new double[][]{{5.0}, {15.0}, {25.0}});
+        double[] range = {-2.0, 2.0};
+
+        WeightInitUtil.fitToRange(z, weights, range);
+
+        for (int n = 0; n < z.getRowDimension(); n++) {
+            double expected = weights.getArrayValue(0) + weights.getArrayValue(1) * n;
+            assertEquals(expected, z.getEntry(n, 0), 1e-12);
+            assertTrue(z.getEntry(n, 0) >= range[0] - 1e-12 && z.getEntry(n, 0) <= range[1] + 1e-12);
+        }
+        assertEquals(0.0, z.getEntry(1, 0), 1e-12, "Values should be centered in the range");
+    }
+}